@@ -0,0 +1,11 @@
+-- A version 2 Sunshine database: forecasts per location, dated at local midnight in millis.
+-- Mountain View (UTC-7) was downloaded last, London (UTC+1) is a stale forecast.
+CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL);
+CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, location_id INTEGER NOT NULL, date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, FOREIGN KEY (location_id) REFERENCES location (_id), UNIQUE (date, location_id) ON CONFLICT REPLACE);
+INSERT INTO location VALUES (1, '94043', 'Mountain View', 37.4056, -122.0775);
+INSERT INTO location VALUES (2, 'London, UK', 'London', 51.5085, -0.1258);
+INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, humidity, pressure, wind, degrees) VALUES (2, 1475017200000, 'Rain', 500, 11.0, 16.0, 88.0, 1004.0, 6.2, 225.0);
+INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, humidity, pressure, wind, degrees) VALUES (2, 1475103600000, 'Rain', 501, 10.0, 15.0, 91.0, 1001.0, 7.5, 240.0);
+INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, humidity, pressure, wind, degrees) VALUES (1, 1475305200000, 'Clear', 800, 12.5, 24.0, 55.0, 1015.0, 2.1, 270.0);
+INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, humidity, pressure, wind, degrees) VALUES (1, 1475391600000, 'Clouds', 802, 13.0, 22.5, 61.0, 1013.0, 3.4, 290.0);
+INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, humidity, pressure, wind, degrees) VALUES (1, 1475478000000, 'Clear', 800, 11.5, 25.0, 48.0, 1017.0, 1.8, 315.0);
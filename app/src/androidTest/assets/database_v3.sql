@@ -0,0 +1,5 @@
+-- A version 3 Sunshine database: the current weather table, without the covering date index.
+CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, date INTEGER NOT NULL, weather_id INTEGER NOT NULL,min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  UNIQUE (date) ON CONFLICT REPLACE);
+INSERT INTO weather (date, weather_id, min, max, humidity, pressure, wind, degrees) VALUES (1475280000000, 800, 12.5, 24.0, 55.0, 1015.0, 2.1, 270.0);
+INSERT INTO weather (date, weather_id, min, max, humidity, pressure, wind, degrees) VALUES (1475366400000, 802, 13.0, 22.5, 61.0, 1013.0, 3.4, 290.0);
+INSERT INTO weather (date, weather_id, min, max, humidity, pressure, wind, degrees) VALUES (1475452800000, 800, 11.5, 25.0, 48.0, 1017.0, 1.8, 315.0);
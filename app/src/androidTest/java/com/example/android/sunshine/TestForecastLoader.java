@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the rows ForecastLoader formats along with its cursor, when it reuses the rows it
+ * formatted before, and that its selection moves on to the new day after midnight.
+ * <p>
+ * The loads run on the test's thread, by calling loadInBackground directly.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastLoader {
+
+    private static final int FORECAST_DAYS = 5;
+
+    private final Context mTargetContext = InstrumentationRegistry.getTargetContext();
+
+    private SharedPreferences mSharedPreferences;
+    private String mUnitsKey;
+    private long mToday;
+
+    @Before
+    public void setUp() throws Exception {
+        mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(mTargetContext);
+        mUnitsKey = mTargetContext.getString(R.string.pref_units_key);
+        setUnits(R.string.pref_units_metric, true);
+
+        mToday = Long.parseLong(
+                WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards()[0]);
+        deleteForecast();
+    }
+
+    @After
+    public void tearDown() {
+        deleteForecast();
+        mSharedPreferences.edit().remove(mUnitsKey).commit();
+    }
+
+    /**
+     * The cursor the loader delivers holds a row for each of its positions, formatted exactly
+     * like ForecastRow.create formats it.
+     */
+    @Test
+    public void testDeliversFormattedRows() {
+        insertForecast(mToday, FORECAST_DAYS, -1);
+
+        ForecastLoader.ForecastCursor cursor = load(createLoader(todayOnwards()));
+        try {
+            assertEquals(FORECAST_DAYS, cursor.getCount());
+            for (int position = 0; cursor.moveToPosition(position); position++) {
+                assertRowMatchesCursor(cursor.getRow(position), cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The units are formatted into the temperatures, so a change of units formats every row
+     * again, although no weather has changed.
+     */
+    @Test
+    public void testUnitsChangeReformatsRows() throws Exception {
+        insertForecast(mToday, FORECAST_DAYS, -1);
+        ForecastLoader loader = createLoader(todayOnwards());
+
+        ForecastLoader.ForecastCursor metricCursor = load(loader);
+        setUnits(R.string.pref_units_imperial, false);
+        ForecastLoader.ForecastCursor imperialCursor = load(loader);
+        try {
+            for (int position = 0; imperialCursor.moveToPosition(position); position++) {
+                ForecastRow metricRow = metricCursor.getRow(position);
+                ForecastRow imperialRow = imperialCursor.getRow(position);
+
+                assertNotSame(metricRow, imperialRow);
+                assertFalse("Day " + position + " still has the metric high",
+                        metricRow.highText.toString().equals(imperialRow.highText.toString()));
+                assertRowMatchesCursor(imperialRow, imperialCursor);
+            }
+        } finally {
+            metricCursor.close();
+            imperialCursor.close();
+        }
+    }
+
+    /**
+     * A reload after a sync only formats the days whose weather changed. The other days keep
+     * the very rows they had.
+     */
+    @Test
+    public void testUnchangedDaysReuseRows() {
+        insertForecast(mToday, FORECAST_DAYS, -1);
+        ForecastLoader loader = createLoader(todayOnwards());
+
+        ForecastLoader.ForecastCursor before = load(loader);
+        int changedDay = 2;
+        insertForecast(mToday, FORECAST_DAYS, changedDay);
+        ForecastLoader.ForecastCursor after = load(loader);
+        try {
+            assertEquals(FORECAST_DAYS, after.getCount());
+            for (int position = 0; after.moveToPosition(position); position++) {
+                if (position == changedDay) {
+                    assertNotSame(before.getRow(position), after.getRow(position));
+                    assertRowMatchesCursor(after.getRow(position), after);
+                } else {
+                    assertSame("Day " + position + " was formatted again",
+                            before.getRow(position), after.getRow(position));
+                }
+            }
+        } finally {
+            before.close();
+            after.close();
+        }
+    }
+
+    /**
+     * A loader created yesterday, like one of an activity that was left open overnight, must
+     * move its selection on to today when a sync reloads it, and when it is started again.
+     * Otherwise the list would still start with yesterday.
+     */
+    @Test
+    public void testSelectionMovesOnToNewDay() {
+        long yesterday = mToday - SunshineDateUtils.DAY_IN_MILLIS;
+        insertForecast(yesterday, FORECAST_DAYS + 1, -1);
+        String[] yesterdayOnwards = {Long.toString(yesterday)};
+
+        /* A sync after midnight */
+        ForecastLoader loader = createLoader(yesterdayOnwards);
+        loader.onContentChanged();
+        assertTrue(Arrays.equals(todayOnwards(), loader.getSelectionArgs()));
+
+        ForecastLoader.ForecastCursor cursor = load(loader);
+        try {
+            assertEquals("Yesterday is still in the list", FORECAST_DAYS, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(mToday, cursor.getLong(MainActivity.INDEX_WEATHER_DATE));
+        } finally {
+            cursor.close();
+        }
+
+        /* Coming back to the activity after midnight */
+        final ForecastLoader startedLoader = createLoader(yesterdayOnwards);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                startedLoader.startLoading();
+                startedLoader.reset();
+            }
+        });
+        assertTrue(Arrays.equals(todayOnwards(), startedLoader.getSelectionArgs()));
+    }
+
+    private ForecastLoader createLoader(String[] selectionArgs) {
+        return new ForecastLoader(mTargetContext,
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                selectionArgs,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private static ForecastLoader.ForecastCursor load(ForecastLoader loader) {
+        Cursor cursor = loader.loadInBackground();
+        assertNotNull(cursor);
+        return (ForecastLoader.ForecastCursor) cursor;
+    }
+
+    private static String[] todayOnwards() {
+        return WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards();
+    }
+
+    /**
+     * Checks that the given row is the one ForecastRow.create formats for the cursor's current
+     * position.
+     */
+    private void assertRowMatchesCursor(ForecastRow row, Cursor cursor) {
+        ForecastRow expected = ForecastRow.create(mTargetContext,
+                cursor.getLong(MainActivity.INDEX_WEATHER_DATE),
+                cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID),
+                cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP),
+                cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP));
+        String day = "Day " + cursor.getPosition();
+
+        assertEquals(day, expected.date, row.date);
+        assertEquals(day, expected.weatherId, row.weatherId);
+        assertEquals(day, expected.largeIconResourceId, row.largeIconResourceId);
+        assertEquals(day, expected.smallIconResourceId, row.smallIconResourceId);
+        assertEquals(day, expected.dateText.toString(), row.dateText.toString());
+        assertEquals(day, expected.description.toString(), row.description.toString());
+        assertEquals(day, expected.descriptionA11y.toString(), row.descriptionA11y.toString());
+        assertEquals(day, expected.highText.toString(), row.highText.toString());
+        assertEquals(day, expected.highA11y.toString(), row.highA11y.toString());
+        assertEquals(day, expected.lowText.toString(), row.lowText.toString());
+        assertEquals(day, expected.lowA11y.toString(), row.lowA11y.toString());
+    }
+
+    /**
+     * Stores a forecast of the given number of days, starting on the given date. Storing the
+     * same days again replaces them.
+     *
+     * @param changedDay The day to give different weather than it otherwise has, or -1
+     */
+    private void insertForecast(long firstDate, int days, int changedDay) {
+        ContentValues[] forecast = new ContentValues[days];
+        for (int day = 0; day < days; day++) {
+            boolean changed = day == changedDay;
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    firstDate + day * SunshineDateUtils.DAY_IN_MILLIS);
+            values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, changed ? 502 : 800);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20 + day + (changed ? 5 : 0));
+            values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10 + day);
+            values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50.0);
+            values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000.0);
+            values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 2.0);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 90.0);
+            forecast[day] = values;
+        }
+        mTargetContext.getContentResolver()
+                .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, forecast);
+    }
+
+    private void deleteForecast() {
+        mTargetContext.getContentResolver()
+                .delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Sets the units, and waits for SunshinePreferences' snapshot to pick them up, as its change
+     * listener runs on the main thread.
+     */
+    private void setUnits(int unitsResourceId, final boolean metric) throws Exception {
+        mSharedPreferences.edit()
+                .putString(mUnitsKey, mTargetContext.getString(unitsResourceId))
+                .commit();
+        PollingCheck.check("The snapshot didn't pick up the units", 3000,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return SunshinePreferences.isMetric(mTargetContext) == metric;
+                    }
+                });
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests the way WeatherDbHelper configures its connections, and measures how long the forecast
+ * list's query takes while a sync is writing, with and without write-ahead logging.
+ * <p>
+ * {@link #benchmarkReaderLatencyDuringSync()} isn't a real test, it just logs the latencies so
+ * that we can compare both journal modes on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestDatabaseConcurrency {
+
+    private static final String TAG = TestDatabaseConcurrency.class.getSimpleName();
+
+    /* A year of forecasts makes each sync take long enough for the readers to run into it */
+    private static final int SYNC_DAYS = 365;
+    private static final int SYNC_RUNS = 20;
+
+    private final Context mTargetContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mTargetContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mTargetContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    /**
+     * With write-ahead logging switched on, the database must actually be in WAL mode, and sync
+     * to disk at the NORMAL level. Before Honeycomb, the switch must have no effect.
+     */
+    @Test
+    public void testWriteAheadLoggingIsConfigured() {
+        mDbHelper = new WeatherDbHelper(mTargetContext, true);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            assertFalse("Write-ahead logging isn't available before Honeycomb",
+                    mDbHelper.isWriteAheadLoggingEnabled());
+            return;
+        }
+
+        assertEquals("wal", readPragma(database, "journal_mode").toLowerCase());
+
+        /* 1 is NORMAL, see https://www.sqlite.org/pragma.html#pragma_synchronous */
+        assertEquals("1", readPragma(database, "synchronous"));
+    }
+
+    /**
+     * With write-ahead logging switched off, the database must keep using the rollback journal.
+     */
+    @Test
+    public void testRollbackJournalWhenWriteAheadLoggingIsOff() {
+        mDbHelper = new WeatherDbHelper(mTargetContext, false);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        assertFalse(mDbHelper.isWriteAheadLoggingEnabled());
+        assertFalse("The database shouldn't be in WAL mode",
+                "wal".equalsIgnoreCase(readPragma(database, "journal_mode")));
+    }
+
+    /**
+     * Runs the forecast list's query over and over while another thread syncs a year of
+     * forecasts, and logs the median, 95th percentile and worst latency of the query, once with
+     * the rollback journal and once with write-ahead logging.
+     */
+    @Test
+    public void benchmarkReaderLatencyDuringSync() throws InterruptedException {
+        for (boolean writeAheadLogging : new boolean[]{false, true}) {
+            mTargetContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            mDbHelper = new WeatherDbHelper(mTargetContext, writeAheadLogging);
+            final SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            final ForecastBatch forecast = createForecast(SYNC_DAYS);
+
+            /* Give the readers something to read before the first sync has finished */
+            sync(database, forecast);
+
+            final Throwable[] writerFailure = new Throwable[1];
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int run = 0; run < SYNC_RUNS; run++) {
+                            sync(database, forecast);
+                        }
+                    } catch (Throwable t) {
+                        writerFailure[0] = t;
+                    }
+                }
+            });
+
+            long[] latencies = new long[1024];
+            int queries = 0;
+
+            writer.start();
+            while (writer.isAlive()) {
+                if (queries == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, queries * 2);
+                }
+                latencies[queries++] = timeListQuery(database);
+            }
+            writer.join();
+
+            assertNull("The sync failed: " + writerFailure[0], writerFailure[0]);
+
+            Arrays.sort(latencies, 0, queries);
+            Log.i(TAG, (writeAheadLogging ? "Write-ahead log: " : "Rollback journal: ")
+                    + queries + " queries, median "
+                    + (latencies[queries / 2] / 1000) + " us, 95th percentile "
+                    + (latencies[queries * 95 / 100] / 1000) + " us, worst "
+                    + (latencies[queries - 1] / 1000) + " us");
+
+            mDbHelper.close();
+        }
+    }
+
+    /**
+     * Replaces the whole forecast in one transaction, just like the sync used to.
+     */
+    private static void sync(SQLiteDatabase database, ForecastBatch forecast) {
+        database.beginTransaction();
+        try {
+            database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+            WeatherProvider.insertForecast(database, forecast);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Runs the forecast list's query and reads every row, like the list would.
+     *
+     * @return How long that took, in nanoseconds
+     */
+    private static long timeListQuery(SQLiteDatabase database) {
+        long start = System.nanoTime();
+        Cursor cursor = database.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards(),
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        while (cursor.moveToNext()) {
+            cursor.getLong(0);
+        }
+        cursor.close();
+        return System.nanoTime() - start;
+    }
+
+    private static String readPragma(SQLiteDatabase database, String pragma) {
+        Cursor cursor = database.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Creates a forecast of the given number of consecutive days, starting today.
+     */
+    private static ForecastBatch createForecast(int days) {
+        ForecastBatch forecast = new ForecastBatch(days);
+        long date = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int day = 0; day < days; day++, date += SunshineDateUtils.DAY_IN_MILLIS) {
+            forecast.add(date, 800 + day % 5, 10.0 + day % 7, 20.0 + day % 9, 50.0 + day % 30,
+                    1000.0 + day % 40, 1.5 + day % 11, (day * 15) % 360);
+        }
+        return forecast;
+    }
+}
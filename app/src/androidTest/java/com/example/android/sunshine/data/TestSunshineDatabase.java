@@ -57,6 +57,7 @@ import static junit.framework.Assert.fail;
  * 4) Verify that NON NULL constraints are working properly on record inserts
  * 5) Verify auto increment is working with the ID
  * 6) Test the onUpgrade functionality of the WeatherDbHelper
+ * 7) Verify that upgrading from version 3 keeps the weather data and adds the covering index
  */
 @RunWith(AndroidJUnit4.class)
 public class TestSunshineDatabase {
@@ -193,7 +194,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 4;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -436,6 +437,44 @@ public class TestSunshineDatabase {
         database.close();
     }
 
+    /**
+     * Upgrading a version 3 database, which didn't have the covering index on the date column
+     * yet, must add the index and keep every row of weather.
+     */
+    @Test
+    public void testUpgradeFromVersion3KeepsData() {
+
+        testInsertSingleRecordIntoWeatherTable();
+
+        /* Turn the freshly created database back into a version 3 database */
+        database.execSQL("DROP INDEX " + WeatherContract.WeatherEntry.INDEX_DATE_COVERING);
+
+        dbHelper.onUpgrade(database, 3, REFLECTED_DATABASE_VERSION);
+
+        Cursor indexCursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherContract.WeatherEntry.INDEX_DATE_COVERING});
+        assertEquals("The covering index wasn't created by the upgrade",
+                1,
+                indexCursor.getCount());
+        indexCursor.close();
+
+        Cursor weatherCursor = database.query(
+                REFLECTED_TABLE_NAME,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null);
+        assertEquals("The weather data should have survived the upgrade",
+                1,
+                weatherCursor.getCount());
+        weatherCursor.close();
+
+        database.close();
+    }
+
     /**
      * This method tests that our database contains all of the tables that we think it should
      * contain. Although in our case, we just have one table that we expect should be added
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that SunshinePreferences' snapshot follows changes to the preferences, whether they are
+ * made through SunshinePreferences or straight through SharedPreferences, like the settings
+ * screen does.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshinePreferences {
+
+    private final Context mTargetContext = InstrumentationRegistry.getTargetContext();
+
+    private SharedPreferences mSharedPreferences;
+    private String mUnitsKey;
+
+    /*
+     * SharedPreferences.Editor.clear doesn't tell change listeners about the keys it removed on
+     * older versions of Android, so we remove the keys we touch one by one instead.
+     */
+    @Before
+    public void setUp() {
+        mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(mTargetContext);
+        mUnitsKey = mTargetContext.getString(R.string.pref_units_key);
+        SunshinePreferences.resetLocationCoordinates(mTargetContext);
+    }
+
+    @After
+    public void tearDown() {
+        mSharedPreferences.edit().remove(mUnitsKey).commit();
+        SunshinePreferences.resetLocationCoordinates(mTargetContext);
+    }
+
+    @Test
+    public void testSnapshotFollowsUnitsChange() throws Exception {
+        setUnits(R.string.pref_units_metric);
+        assertUnitsBecome(true);
+
+        setUnits(R.string.pref_units_imperial);
+        assertUnitsBecome(false);
+    }
+
+    @Test
+    public void testSnapshotFollowsLocationDetails() {
+        assertFalse(SunshinePreferences.isLocationLatLonAvailable(mTargetContext));
+
+        SunshinePreferences.setLocationDetails(mTargetContext, 37.4, -122.1);
+
+        /* Our own setters update the snapshot right away */
+        SunshinePreferences.Snapshot snapshot = SunshinePreferences.getSnapshot(mTargetContext);
+        assertTrue(snapshot.isLocationLatLonAvailable());
+        assertEquals(37.4, snapshot.getLatitude());
+        assertEquals(-122.1, snapshot.getLongitude());
+
+        SunshinePreferences.resetLocationCoordinates(mTargetContext);
+
+        assertFalse(SunshinePreferences.isLocationLatLonAvailable(mTargetContext));
+    }
+
+    private void setUnits(int unitsResourceId) {
+        mSharedPreferences.edit()
+                .putString(mUnitsKey, mTargetContext.getString(unitsResourceId))
+                .commit();
+    }
+
+    /**
+     * The change listener runs on the main thread, so the snapshot gets a moment to catch up.
+     */
+    private void assertUnitsBecome(final boolean metric) throws Exception {
+        PollingCheck.check("The snapshot didn't pick up the units", 3000,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return SunshinePreferences.isMetric(mTargetContext) == metric;
+                    }
+                });
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+/**
+ * Compares the compiled statement path of {@link WeatherProvider#insertForecast} with the
+ * ContentValues path it replaced, {@link WeatherProvider#insertForecastOneByOne}. Both must
+ * leave exactly the same rows in the weather table.
+ * <p>
+ * {@link #benchmarkInsertPaths()} isn't a real test, it just logs how long each path takes to
+ * insert forecasts of different sizes, so that we can compare them on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherBulkInsert {
+
+    private static final String TAG = TestWeatherBulkInsert.class.getSimpleName();
+
+    /* A normal forecast, a year of forecasts and a lot more than we'll ever store */
+    private static final int[] BENCHMARK_ROW_COUNTS = {14, 365, 10000};
+    private static final int BENCHMARK_RUNS = 5;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(InstrumentationRegistry.getTargetContext());
+        mDatabase = mDbHelper.getWritableDatabase();
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        mDbHelper.close();
+    }
+
+    /**
+     * The rows inserted through the compiled statement must read back exactly like the values
+     * they were inserted from.
+     */
+    @Test
+    public void testCompiledInsertMatchesValues() {
+        ContentValues[] testValues = createBulkInsertTestWeatherValues();
+
+        int rowsInserted = insertInTransaction(testValues, true);
+        assertEquals("Wrong number of rows inserted", BULK_INSERT_RECORDS_TO_INSERT, rowsInserted);
+
+        Cursor cursor = mDatabase.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null, null, null, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testCompiledInsertMatchesValues. Error validating WeatherEntry " + i,
+                    cursor,
+                    testValues[i]);
+        }
+        cursor.close();
+    }
+
+    /**
+     * A single date that isn't normalized must keep the whole forecast from being inserted.
+     */
+    @Test
+    public void testCompiledInsertRejectsUnnormalizedDate() {
+        ContentValues[] testValues = createBulkInsertTestWeatherValues();
+        long lastDate = testValues[BULK_INSERT_RECORDS_TO_INSERT - 1]
+                .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        testValues[BULK_INSERT_RECORDS_TO_INSERT - 1]
+                .put(WeatherContract.WeatherEntry.COLUMN_DATE, lastDate + 1);
+
+        try {
+            insertInTransaction(testValues, true);
+            fail("A date that isn't normalized should have thrown an IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals("No rows should have been inserted", 0, countRows());
+    }
+
+    /**
+     * Inserts forecasts of increasing size with both paths and logs the average time each took.
+     * The table is emptied between runs so both paths always insert into an empty table.
+     */
+    @Test
+    public void benchmarkInsertPaths() {
+        for (int rowCount : BENCHMARK_ROW_COUNTS) {
+            ContentValues[] values = createForecast(rowCount);
+
+            /* Warm up both paths so that neither pays for loading classes or compiling SQL */
+            timeInsert(values, false);
+            timeInsert(values, true);
+
+            long oneByOneNanos = 0;
+            long compiledNanos = 0;
+            for (int run = 0; run < BENCHMARK_RUNS; run++) {
+                oneByOneNanos += timeInsert(values, false);
+                compiledNanos += timeInsert(values, true);
+            }
+
+            Log.i(TAG, rowCount + " rows: ContentValues "
+                    + (oneByOneNanos / BENCHMARK_RUNS / 1000) + " us, compiled statement "
+                    + (compiledNanos / BENCHMARK_RUNS / 1000) + " us");
+        }
+    }
+
+    private long timeInsert(ContentValues[] values, boolean compiled) {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+
+        long start = System.nanoTime();
+        int rowsInserted = insertInTransaction(values, compiled);
+        long elapsedNanos = System.nanoTime() - start;
+
+        assertEquals(values.length, rowsInserted);
+        return elapsedNanos;
+    }
+
+    private int insertInTransaction(ContentValues[] values, boolean compiled) {
+        mDatabase.beginTransaction();
+        try {
+            int rowsInserted = compiled
+                    ? WeatherProvider.insertForecast(mDatabase, values)
+                    : WeatherProvider.insertForecastOneByOne(mDatabase, values);
+            mDatabase.setTransactionSuccessful();
+            return rowsInserted;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private int countRows() {
+        Cursor cursor = mDatabase.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Creates a forecast of the given number of consecutive days, with the same kind of values
+     * as the ones in TestUtilities.
+     */
+    private static ContentValues[] createForecast(int rowCount) {
+        ContentValues[] forecast = new ContentValues[rowCount];
+        long date = SunshineDateUtils.normalizeDate(TestUtilities.DATE_NORMALIZED);
+        for (int i = 0; i < rowCount; i++, date += SunshineDateUtils.DAY_IN_MILLIS) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800 + i % 5);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0 + i % 7);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20.0 + i % 9);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50.0 + i % 30);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000.0 + i % 40);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 1.5 + i % 11);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, (i * 15) % 360);
+            forecast[i] = weatherValues;
+        }
+        return forecast;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Upgrades databases of every version Sunshine ever shipped to the current version and checks
+ * that the cached forecast survives. Each old database is built from a SQL script in the test
+ * assets, named database_v[version].sql.
+ * <p>
+ * The version 1 and 2 fixtures hold a forecast for two locations. Only the one that was
+ * downloaded last, Mountain View, should survive, and in all three cases it should end up as
+ * exactly the rows in {@link #EXPECTED_DATES}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherDbMigrations {
+
+    /* Saturday, October 1st 2016 to Monday, October 3rd 2016, each at UTC midnight */
+    private static final long[] EXPECTED_DATES = {1475280000000L, 1475366400000L, 1475452800000L};
+    private static final int[] EXPECTED_WEATHER_IDS = {800, 802, 800};
+    private static final double[] EXPECTED_MIN_TEMPS = {12.5, 13.0, 11.5};
+    private static final double[] EXPECTED_MAX_TEMPS = {24.0, 22.5, 25.0};
+
+    private final Context mTargetContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mTargetContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mTargetContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void testUpgradeFromVersion1() throws IOException {
+        assertUpgradeKeepsForecast(1);
+    }
+
+    @Test
+    public void testUpgradeFromVersion2() throws IOException {
+        assertUpgradeKeepsForecast(2);
+    }
+
+    @Test
+    public void testUpgradeFromVersion3() throws IOException {
+        assertUpgradeKeepsForecast(3);
+    }
+
+    /**
+     * Creates a database of the given version from its fixture, opens it with WeatherDbHelper,
+     * just like the app would after an update, and checks the schema and the forecast it ends
+     * up with.
+     */
+    private void assertUpgradeKeepsForecast(int fromVersion) throws IOException {
+        createDatabaseFromFixture(fromVersion);
+
+        mDbHelper = new WeatherDbHelper(mTargetContext);
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+
+        String upgradeFailed = "Upgrading from version " + fromVersion + ": ";
+
+        assertEquals(upgradeFailed + "The location table should have been dropped",
+                0,
+                countSchemaEntries(database, "table", "location"));
+        assertEquals(upgradeFailed + "The covering index wasn't created",
+                1,
+                countSchemaEntries(database, "index",
+                        WeatherContract.WeatherEntry.INDEX_DATE_COVERING));
+
+        Cursor cursor = database.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null, null, null, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(upgradeFailed + "Wrong number of days kept",
+                EXPECTED_DATES.length,
+                cursor.getCount());
+
+        int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+        int weatherIdIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        int minIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        int maxIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+
+        for (int day = 0; cursor.moveToNext(); day++) {
+            assertEquals(upgradeFailed + "Wrong date for day " + day,
+                    EXPECTED_DATES[day],
+                    cursor.getLong(dateIndex));
+            assertEquals(upgradeFailed + "Wrong weather ID for day " + day,
+                    EXPECTED_WEATHER_IDS[day],
+                    cursor.getInt(weatherIdIndex));
+            assertEquals(upgradeFailed + "Wrong min temperature for day " + day,
+                    EXPECTED_MIN_TEMPS[day],
+                    cursor.getDouble(minIndex));
+            assertEquals(upgradeFailed + "Wrong max temperature for day " + day,
+                    EXPECTED_MAX_TEMPS[day],
+                    cursor.getDouble(maxIndex));
+        }
+        cursor.close();
+    }
+
+    /**
+     * Creates Sunshine's database file from the fixture of the given version and stamps it with
+     * that version, so that the next WeatherDbHelper to open it has to upgrade it.
+     */
+    private void createDatabaseFromFixture(int version) throws IOException {
+        SQLiteDatabase database = mTargetContext.openOrCreateDatabase(
+                WeatherDbHelper.DATABASE_NAME, Context.MODE_PRIVATE, null);
+        try {
+            for (String statement : readStatements("database_v" + version + ".sql")) {
+                database.execSQL(statement);
+            }
+            database.setVersion(version);
+        } finally {
+            database.close();
+        }
+    }
+
+    private static int countSchemaEntries(SQLiteDatabase database, String type, String name) {
+        Cursor cursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type=? AND name=?",
+                new String[]{type, name});
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Reads a SQL script from the test assets. execSQL only runs one statement at a time, so
+     * the script is split on semicolons, after dropping its "--" comment lines.
+     */
+    private static String[] readStatements(String fixtureName) throws IOException {
+        InputStream in = InstrumentationRegistry.getContext().getAssets().open(fixtureName);
+        String script;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            script = out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+
+        StringBuilder sql = new StringBuilder();
+        for (String line : script.split("\n")) {
+            if (!line.trim().startsWith("--")) {
+                sql.append(line).append('\n');
+            }
+        }
+        return sql.toString().trim().split(";\\s*");
+    }
+}
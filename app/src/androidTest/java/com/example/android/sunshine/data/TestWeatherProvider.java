@@ -27,6 +27,8 @@ import android.net.Uri;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -423,6 +425,137 @@ public class TestWeatherProvider {
         shouldBeEmptyCursor.close();
     }
 
+    /**
+     * Syncing a forecast through {@link WeatherContract.WeatherEntry#SYNC_URI} should only touch
+     * the days that changed. Here, we first sync the test forecast into the empty table, then
+     * sync a forecast that drops the first day, changes one day and adds a new day at the end.
+     * We expect exactly those three rows to be touched, a notification to be sent and the table
+     * to hold the new forecast afterwards.
+     */
+    @Test
+    public void testSyncOnlyTouchesChangedDays() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues[] firstForecast = createBulkInsertTestWeatherValues();
+
+        /* Syncing into an empty table inserts every day */
+        int firstSyncCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.SYNC_URI,
+                firstForecast);
+        assertEquals("Syncing into an empty table should insert every day",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                firstSyncCount);
+
+        /* Syncing the very same forecast again shouldn't touch anything */
+        int unchangedSyncCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.SYNC_URI,
+                createBulkInsertTestWeatherValues());
+        assertEquals("Syncing an unchanged forecast shouldn't touch any rows",
+                0,
+                unchangedSyncCount);
+
+        /*
+         * The second forecast starts a day later, so the first day is gone. It also has a
+         * different high temperature for its third day and one more day at the end.
+         */
+        ContentValues[] secondForecast = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
+        System.arraycopy(firstForecast, 1, secondForecast, 0, BULK_INSERT_RECORDS_TO_INSERT - 1);
+
+        secondForecast[2] = new ContentValues(secondForecast[2]);
+        secondForecast[2].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+
+        ContentValues newLastDay = new ContentValues(firstForecast[BULK_INSERT_RECORDS_TO_INSERT - 1]);
+        newLastDay.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                newLastDay.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        + SunshineDateUtils.DAY_IN_MILLIS);
+        secondForecast[BULK_INSERT_RECORDS_TO_INSERT - 1] = newLastDay;
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                true,
+                weatherObserver);
+
+        int secondSyncCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.SYNC_URI,
+                secondForecast);
+
+        /* If this fails, the sync didn't notify observers of the weather URI */
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        String wrongRowsTouched =
+                "Sync should have deleted one day, updated one day and inserted one day";
+        assertEquals(wrongRowsTouched, 3, secondSyncCount);
+
+        /* The table should now hold exactly the second forecast */
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testSyncOnlyTouchesChangedDays. Error validating WeatherEntry " + i,
+                    cursor,
+                    secondForecast[i]);
+        }
+        cursor.close();
+    }
+
+    /**
+     * applyForecastBatch must store a forecast exactly like a bulkInsert of the same forecast
+     * at {@link WeatherContract.WeatherEntry#SYNC_URI} would, and notify observers of the
+     * weather URI.
+     */
+    @Test
+    public void testApplyForecastBatch() {
+        ContentValues[] testValues = createBulkInsertTestWeatherValues();
+        ForecastBatch forecast = ForecastBatch.fromContentValues(testValues);
+        assertNotNull("The test values should fit in a ForecastBatch", forecast);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                true,
+                weatherObserver);
+
+        int rowsTouched = WeatherProvider.applyForecastBatch(mContext, forecast);
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertEquals("Every day should have been inserted",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                rowsTouched);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testApplyForecastBatch. Error validating WeatherEntry " + i,
+                    cursor,
+                    testValues[i]);
+        }
+        cursor.close();
+
+        /* Applying the same forecast again mustn't touch anything */
+        assertEquals(0, WeatherProvider.applyForecastBatch(mContext, forecast));
+    }
+
     /**
      * This method will clear all rows from the weather table in our database.
      * <p>
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.DetailActivity;
+import com.example.android.sunshine.MainActivity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Guards the way SQLite runs the queries behind the forecast list and the detail screen. Each
+ * test asks SQLite for the plan of one of those queries with EXPLAIN QUERY PLAN and checks that
+ * it uses an index on the date column rather than scanning the whole weather table.
+ * <p>
+ * The SQL is built the same way SQLiteDatabase#query builds it for WeatherProvider, so the plans
+ * are the plans of the statements the app actually runs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherQueryPlan {
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(InstrumentationRegistry.getTargetContext());
+        mDatabase = mDbHelper.getReadableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    /**
+     * The forecast list reads every day from today onwards, sorted by date. All of its columns
+     * are in the covering index, so SQLite should never need to read the table, nor sort.
+     */
+    @Test
+    public void testForecastListQueryUsesCoveringIndex() {
+        String plan = explainQueryPlan(
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards(),
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertTrue("The forecast list query doesn't use the covering index: " + plan,
+                plan.contains("COVERING INDEX " + WeatherContract.WeatherEntry.INDEX_DATE_COVERING));
+        assertFalse("The forecast list query needs to sort: " + plan,
+                plan.contains("TEMP B-TREE"));
+    }
+
+    /**
+     * The detail screen reads a single day by its date. Whichever date index SQLite picks for
+     * that, it mustn't scan the table.
+     */
+    @Test
+    public void testDetailQueryUsesDateIndex() {
+        String plan = explainQueryPlan(
+                DetailActivity.WEATHER_DETAIL_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                new String[]{Long.toString(TestUtilities.DATE_NORMALIZED)},
+                null);
+
+        assertTrue("The detail query doesn't search an index: " + plan,
+                plan.contains("SEARCH") && plan.contains("INDEX"));
+        assertFalse("The detail query scans the weather table: " + plan,
+                plan.contains("SCAN"));
+    }
+
+    /**
+     * Returns the details of every step of SQLite's plan for a query of the weather table,
+     * separated by newlines.
+     */
+    private String explainQueryPlan(String[] projection, String selection, String[] selectionArgs,
+                                    String sortOrder) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                selection,
+                null,
+                null,
+                sortOrder,
+                null);
+
+        Cursor planCursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            StringBuilder plan = new StringBuilder();
+            int detailIndex = planCursor.getColumnIndexOrThrow("detail");
+            while (planCursor.moveToNext()) {
+                plan.append(planCursor.getString(detailIndex)).append('\n');
+            }
+            return plan.toString();
+        } finally {
+            planCursor.close();
+        }
+    }
+}
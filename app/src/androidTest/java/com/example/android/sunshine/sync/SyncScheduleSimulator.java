@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link SyncSchedulePolicy} against a simulated clock, server and user, the same way
+ * SunshineSyncUtils runs it against the real ones, and records what happens. Nothing in here is
+ * random, the same simulation always gives the same result.
+ * <p>
+ * Time starts at 0, midnight UTC, and the user lives in UTC. Each sync runs at the very end of
+ * its window, the latest the job dispatcher is supposed to run it, which makes the data as old
+ * as it can get.
+ */
+final class SyncScheduleSimulator {
+
+    static final long HOUR_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /* Same as SunshineSyncUtils */
+    private static final long MIN_RESCHEDULE_GAIN_MILLIS = HOUR_IN_MILLIS;
+
+    private int mOpenHour = -1;
+    private long mForecastChangeMillis = TimeUnit.HOURS.toMillis(12);
+    private long mStormStartMillis = -1;
+    private long mStormEndMillis = -1;
+
+    /**
+     * The user opens the app every day at the given hour, starting on the first day. By
+     * default, the app is opened once at the very start and never again.
+     */
+    SyncScheduleSimulator openAppDailyAt(int hourOfDay) {
+        mOpenHour = hourOfDay;
+        return this;
+    }
+
+    /**
+     * The server publishes a new forecast at every multiple of the given time. By default,
+     * every 12 hours.
+     */
+    SyncScheduleSimulator changeForecastEvery(long millis) {
+        mForecastChangeMillis = millis;
+        return this;
+    }
+
+    /**
+     * There are storms from the start to the end time. A forecast is volatile from a day before
+     * the storm starts, as that is when it shows up in tomorrow's weather.
+     */
+    SyncScheduleSimulator stormBetween(long startMillis, long endMillis) {
+        mStormStartMillis = startMillis;
+        mStormEndMillis = endMillis;
+        return this;
+    }
+
+    Result run(long durationMillis) {
+        SyncSchedulePolicy policy = new SyncSchedulePolicy(TimeZone.getTimeZone("UTC"));
+        Result result = new Result();
+
+        long nextOpen;
+        if (mOpenHour < 0) {
+            policy.recordAppOpened(0);
+            nextOpen = Long.MAX_VALUE;
+        } else {
+            nextOpen = mOpenHour * HOUR_IN_MILLIS;
+        }
+
+        long scheduledAt = 0;
+        long interval = policy.getIntervalMillis(0);
+        long lastForecast = -1;
+        long lastSync = -1;
+
+        while (true) {
+            long nextSync = scheduledAt + interval + SyncSchedulePolicy.getFlexMillis(interval);
+            long now = Math.min(nextOpen, nextSync);
+            if (now >= durationMillis) {
+                return result;
+            }
+
+            if (now == nextOpen) {
+                if (lastSync >= 0) {
+                    result.mAgesAtOpen.add(now - lastSync);
+                }
+                policy.recordAppOpened(now);
+                long newInterval = policy.getIntervalMillis(now);
+                if (now + newInterval + MIN_RESCHEDULE_GAIN_MILLIS < scheduledAt + interval) {
+                    scheduledAt = now;
+                    interval = newInterval;
+                }
+                nextOpen += DAY_IN_MILLIS;
+                continue;
+            }
+
+            long forecast = now / mForecastChangeMillis;
+            boolean changed = forecast != lastForecast;
+            boolean volatileWeather = mStormStartMillis >= 0
+                    && now >= mStormStartMillis - DAY_IN_MILLIS && now < mStormEndMillis;
+            policy.recordSync(changed, volatileWeather);
+
+            result.mSyncTimes.add(now);
+            if (!changed) {
+                result.mUnchangedSyncs++;
+            }
+            lastForecast = forecast;
+            lastSync = now;
+
+            scheduledAt = now;
+            interval = policy.getIntervalMillis(now);
+        }
+    }
+
+    static final class Result {
+
+        final List<Long> mSyncTimes = new ArrayList<>();
+        final List<Long> mAgesAtOpen = new ArrayList<>();
+        int mUnchangedSyncs;
+
+        int getSyncCount() {
+            return mSyncTimes.size();
+        }
+
+        int getSyncCountOnDay(int day) {
+            int count = 0;
+            for (long syncTime : mSyncTimes) {
+                if (syncTime / DAY_IN_MILLIS == day) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @param firstOpen The first open to consider, to leave out the ones before the user's
+         *                  habit is known
+         * @return The age of the oldest forecast the user saw when opening the app
+         */
+        long getMaxAgeAtOpen(int firstOpen) {
+            long maxAge = 0;
+            for (int open = firstOpen; open < mAgesAtOpen.size(); open++) {
+                maxAge = Math.max(maxAge, mAgesAtOpen.get(open));
+            }
+            return maxAge;
+        }
+    }
+}
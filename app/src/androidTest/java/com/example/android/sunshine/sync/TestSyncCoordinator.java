@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.os.CancellationSignal;
+
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests which callers of SyncCoordinator actually get to run a sync, with a stand-in for
+ * syncWeather that counts how often it is run and that can be held until the test lets it
+ * finish.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncCoordinator {
+
+    private static final String URL = "https://example.com/forecast?q=94043";
+    private static final String OTHER_URL = "https://example.com/forecast?q=10001";
+
+    /* How long a test waits for a sync running on another thread before it gives up */
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private CountingSyncer mSyncer;
+
+    @Before
+    public void setUp() {
+        SyncCoordinator.resetFreshness();
+        mSyncer = new CountingSyncer();
+    }
+
+    @After
+    public void tearDown() {
+        /* Don't leave a sync that a failed test didn't let finish behind for the next test */
+        mSyncer.release();
+        SyncCoordinator.resetFreshness();
+    }
+
+    /**
+     * A caller that asks for a sync while another caller's sync of the same URL is running
+     * waits for it and gets its result, rather than running its own.
+     */
+    @Test
+    public void testConcurrentCallersSyncOnce() throws Exception {
+        mSyncer.hold();
+        /* Failed syncs don't make the forecast fresh, so only joining explains a single run */
+        mSyncer.setResult(SunshineSyncTask.SYNC_RESULT_FAILED);
+
+        AsyncSync leader = AsyncSync.start(URL, mSyncer, new CancellationSignal());
+        mSyncer.awaitRunning();
+        AsyncSync joiner = AsyncSync.start(URL, mSyncer, new CancellationSignal());
+        joiner.awaitWaiting();
+
+        mSyncer.release();
+
+        assertEquals(SunshineSyncTask.SYNC_RESULT_FAILED, leader.getResult());
+        assertEquals(SunshineSyncTask.SYNC_RESULT_FAILED, joiner.getResult());
+        assertEquals("syncWeather should only have run once", 1, mSyncer.getRuns());
+    }
+
+    @Test
+    public void testSyncWithinFreshnessWindowIsSkipped() {
+        assertEquals(SunshineSyncTask.SYNC_RESULT_SUCCESS,
+                SyncCoordinator.sync(URL, mSyncer, new CancellationSignal()));
+        assertEquals(SunshineSyncTask.SYNC_RESULT_SUCCESS,
+                SyncCoordinator.sync(URL, mSyncer, new CancellationSignal()));
+
+        assertEquals("The second sync should have found the forecast fresh", 1,
+                mSyncer.getRuns());
+    }
+
+    /**
+     * A sync that didn't succeed doesn't make the forecast fresh, so the next one runs.
+     */
+    @Test
+    public void testFailedSyncDoesNotSkipNextSync() {
+        mSyncer.setResult(SunshineSyncTask.SYNC_RESULT_FAILED);
+        SyncCoordinator.sync(URL, mSyncer, new CancellationSignal());
+        mSyncer.setResult(SunshineSyncTask.SYNC_RESULT_SUCCESS);
+        SyncCoordinator.sync(URL, mSyncer, new CancellationSignal());
+
+        assertEquals(2, mSyncer.getRuns());
+    }
+
+    /**
+     * The caller of a sync that others joined may cancel it. Its result isn't theirs, so a
+     * caller that joined it must go on to run a sync of its own.
+     */
+    @Test
+    public void testCancelledLeaderMakesJoinerSync() throws Exception {
+        mSyncer.hold();
+
+        CancellationSignal leaderSignal = new CancellationSignal();
+        AsyncSync leader = AsyncSync.start(URL, mSyncer, leaderSignal);
+        mSyncer.awaitRunning();
+        AsyncSync joiner = AsyncSync.start(URL, mSyncer, new CancellationSignal());
+        joiner.awaitWaiting();
+
+        leaderSignal.cancel();
+        mSyncer.release();
+
+        assertEquals(SunshineSyncTask.SYNC_RESULT_CANCELLED, leader.getResult());
+        assertEquals(SunshineSyncTask.SYNC_RESULT_SUCCESS, joiner.getResult());
+        assertEquals("The joiner should have run its own sync", 2, mSyncer.getRuns());
+    }
+
+    /**
+     * After the location was changed, a sync of the new location's forecast must run, however
+     * fresh the old location's forecast is.
+     */
+    @Test
+    public void testChangedUrlBypassesFreshness() {
+        SyncCoordinator.sync(URL, mSyncer, new CancellationSignal());
+        SyncCoordinator.sync(OTHER_URL, mSyncer, new CancellationSignal());
+
+        assertEquals(2, mSyncer.getRuns());
+    }
+
+    @Test
+    public void testResetFreshnessForcesSync() {
+        SyncCoordinator.sync(URL, mSyncer, new CancellationSignal());
+        SyncCoordinator.resetFreshness();
+        SyncCoordinator.sync(URL, mSyncer, new CancellationSignal());
+
+        assertEquals(2, mSyncer.getRuns());
+    }
+
+    /**
+     * Stands in for syncWeather. Returns the result it was given, after the test released it if
+     * it was held, or with SYNC_RESULT_CANCELLED if its caller's signal was cancelled by then.
+     */
+    private static final class CountingSyncer implements SyncCoordinator.Syncer {
+
+        private final AtomicInteger mRuns = new AtomicInteger();
+        private final CountDownLatch mRunning = new CountDownLatch(1);
+        private volatile CountDownLatch mReleased = new CountDownLatch(0);
+        private volatile int mResult = SunshineSyncTask.SYNC_RESULT_SUCCESS;
+
+        @Override
+        public int sync(CancellationSignal cancellationSignal) {
+            mRuns.incrementAndGet();
+            mRunning.countDown();
+            try {
+                if (!mReleased.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("The test never released the sync");
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return cancellationSignal.isCanceled()
+                    ? SunshineSyncTask.SYNC_RESULT_CANCELLED
+                    : mResult;
+        }
+
+        /**
+         * Holds every sync until {@link #release()} is called.
+         */
+        void hold() {
+            mReleased = new CountDownLatch(1);
+        }
+
+        void release() {
+            mReleased.countDown();
+        }
+
+        void setResult(int result) {
+            mResult = result;
+        }
+
+        void awaitRunning() throws InterruptedException {
+            assertTrue("No sync was started",
+                    mRunning.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        int getRuns() {
+            return mRuns.get();
+        }
+    }
+
+    /**
+     * Asks SyncCoordinator for a sync on a thread of its own.
+     */
+    private static final class AsyncSync {
+
+        private final Thread mThread;
+        private volatile int mResult = -1;
+
+        private AsyncSync(final String url, final SyncCoordinator.Syncer syncer,
+                          final CancellationSignal cancellationSignal) {
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    mResult = SyncCoordinator.sync(url, syncer, cancellationSignal);
+                }
+            });
+        }
+
+        static AsyncSync start(String url, SyncCoordinator.Syncer syncer,
+                               CancellationSignal cancellationSignal) {
+            AsyncSync sync = new AsyncSync(url, syncer, cancellationSignal);
+            sync.mThread.start();
+            return sync;
+        }
+
+        /**
+         * Waits until the sync has joined the one that is running, and is waiting for it to land.
+         */
+        void awaitWaiting() {
+            new PollingCheck(TIMEOUT_MILLIS) {
+                @Override
+                protected boolean check() {
+                    return mThread.getState() == Thread.State.TIMED_WAITING;
+                }
+            }.run();
+        }
+
+        int getResult() throws InterruptedException {
+            mThread.join(TIMEOUT_MILLIS);
+            assertFalse("The sync didn't finish", mThread.isAlive());
+            return mResult;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.ForecastBatch;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.sync.SyncScheduleSimulator.DAY_IN_MILLIS;
+import static com.example.android.sunshine.sync.SyncScheduleSimulator.HOUR_IN_MILLIS;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs two weeks of syncs through {@link SyncScheduleSimulator} for a few kinds of weather and
+ * users, and checks that SyncSchedulePolicy syncs less than the fixed schedule it replaced,
+ * without the user ever seeing an old forecast.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncSchedulePolicy {
+
+    private static final int DAYS = 14;
+    private static final long DURATION_MILLIS = DAYS * DAY_IN_MILLIS;
+
+    /* The fixed schedule synced every 3 hours, at most an hour late */
+    private static final int FIXED_SCHEDULE_SYNCS =
+            (int) (DURATION_MILLIS / (SyncSchedulePolicy.BASE_INTERVAL_MILLIS + HOUR_IN_MILLIS));
+
+    /* Opens before the policy has seen the user's habit, which we don't judge it by */
+    private static final int LEARNING_OPENS = 3;
+
+    @Test
+    public void testStableWeatherSyncsLessThanFixedSchedule() {
+        SyncScheduleSimulator.Result result = new SyncScheduleSimulator()
+                .openAppDailyAt(8)
+                .run(DURATION_MILLIS);
+
+        assertTrue("Expected at least a quarter fewer syncs than the fixed schedule's "
+                        + FIXED_SCHEDULE_SYNCS + ", got " + result.getSyncCount(),
+                result.getSyncCount() <= FIXED_SCHEDULE_SYNCS * 3 / 4);
+    }
+
+    @Test
+    public void testForecastIsFreshWhenUserOpensApp() {
+        SyncScheduleSimulator.Result result = new SyncScheduleSimulator()
+                .openAppDailyAt(8)
+                .run(DURATION_MILLIS);
+
+        long maxAge = result.getMaxAgeAtOpen(LEARNING_OPENS);
+        assertTrue("The user saw a forecast that was " + maxAge + " ms old",
+                maxAge <= HOUR_IN_MILLIS);
+    }
+
+    @Test
+    public void testStormsAreSyncedAtLeastHourly() {
+        SyncScheduleSimulator.Result result = new SyncScheduleSimulator()
+                .openAppDailyAt(8)
+                .stormBetween(5 * DAY_IN_MILLIS, 7 * DAY_IN_MILLIS)
+                .run(DURATION_MILLIS);
+
+        /* An hour, plus a third of an hour of flex time */
+        int minSyncs = (int) (DAY_IN_MILLIS / (HOUR_IN_MILLIS * 4 / 3));
+        for (int day = 5; day < 7; day++) {
+            assertTrue("Only " + result.getSyncCountOnDay(day) + " syncs on stormy day " + day,
+                    result.getSyncCountOnDay(day) >= minSyncs);
+        }
+        assertTrue("Still syncing as often after the storms",
+                result.getSyncCountOnDay(10) < minSyncs);
+    }
+
+    @Test
+    public void testIdleUserIsSyncedOnceADay() {
+        SyncScheduleSimulator.Result result = new SyncScheduleSimulator().run(DURATION_MILLIS);
+
+        for (int day = 8; day < DAYS; day++) {
+            assertTrue("More than one sync on day " + day + " of not opening the app",
+                    result.getSyncCountOnDay(day) <= 1);
+        }
+    }
+
+    @Test
+    public void testFrequentForecastChangesKeepBaseInterval() {
+        SyncScheduleSimulator.Result result = new SyncScheduleSimulator()
+                .openAppDailyAt(8)
+                .changeForecastEvery(2 * HOUR_IN_MILLIS)
+                .run(DURATION_MILLIS);
+
+        assertEquals("Every sync should have found a new forecast", 0, result.mUnchangedSyncs);
+    }
+
+    @Test
+    public void testSimulationIsDeterministic() {
+        SyncScheduleSimulator simulator = new SyncScheduleSimulator()
+                .openAppDailyAt(8)
+                .stormBetween(3 * DAY_IN_MILLIS, 4 * DAY_IN_MILLIS);
+
+        assertEquals(simulator.run(DURATION_MILLIS).mSyncTimes,
+                simulator.run(DURATION_MILLIS).mSyncTimes);
+    }
+
+    @Test
+    public void testStormCodesAreVolatile() {
+        long today = 1475280000000L;
+
+        assertTrue("A thunderstorm tomorrow is volatile",
+                SyncSchedulePolicy.isVolatile(createForecast(today, 800, 211), today));
+        assertTrue("A hurricane today is volatile",
+                SyncSchedulePolicy.isVolatile(createForecast(today, 902, 800), today));
+        assertFalse("Clear skies and rain aren't volatile",
+                SyncSchedulePolicy.isVolatile(createForecast(today, 800, 501), today));
+        assertFalse("A thunderstorm the day after tomorrow doesn't count yet",
+                SyncSchedulePolicy.isVolatile(createForecast(today - DAY_IN_MILLIS, 800, 800,
+                        211), today - DAY_IN_MILLIS));
+    }
+
+    private static ForecastBatch createForecast(long firstDate, int... weatherIds) {
+        ForecastBatch forecast = new ForecastBatch(weatherIds.length);
+        for (int day = 0; day < weatherIds.length; day++) {
+            forecast.add(firstDate + day * DAY_IN_MILLIS, weatherIds[day], 10.0, 20.0, 50.0,
+                    1000.0, 2.0, 90.0);
+        }
+        return forecast;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how WearPushScheduler tells forecasts apart, and which changes it considers worth an
+ * urgent push to the wear device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWearPushScheduler {
+
+    private static final long TODAY = 1475280000000L;
+    private static final long TOMORROW = TODAY + SunshineDateUtils.DAY_IN_MILLIS;
+
+    @Test
+    public void testIdenticalForecastsHaveTheSameDigest() {
+        WearPushScheduler.Push first = createPush(TODAY, 800, 20.0, 10.0);
+        WearPushScheduler.Push second = createPush(TODAY, 800, 20.0, 10.0);
+
+        assertEquals(first.mDigest, second.mDigest);
+    }
+
+    @Test
+    public void testChangedForecastsHaveDifferentDigests() {
+        WearPushScheduler.Push first = createPush(TODAY, 800, 20.0, 10.0);
+        WearPushScheduler.Push second = createPush(TODAY, 800, 21.0, 10.0);
+
+        assertFalse(first.mDigest == second.mDigest);
+    }
+
+    @Test
+    public void testFirstPushIsSignificant() {
+        assertTrue(createPush(TODAY, 800, 20.0, 10.0).isSignificantChangeFrom(null));
+    }
+
+    @Test
+    public void testSmallTemperatureChangeIsNotSignificant() {
+        WearPushScheduler.Push previous = createPush(TODAY, 800, 20.0, 10.0);
+        WearPushScheduler.Push push = createPush(TODAY, 800, 21.0, 9.0);
+
+        assertFalse(push.isSignificantChangeFrom(previous));
+    }
+
+    @Test
+    public void testLargeTemperatureChangeIsSignificant() {
+        WearPushScheduler.Push previous = createPush(TODAY, 800, 20.0, 10.0);
+
+        assertTrue("A higher max temperature should be significant",
+                createPush(TODAY, 800, 20.0 + WearPushScheduler.SIGNIFICANT_TEMP_CHANGE, 10.0)
+                        .isSignificantChangeFrom(previous));
+        assertTrue("A lower min temperature should be significant",
+                createPush(TODAY, 800, 20.0, 10.0 - WearPushScheduler.SIGNIFICANT_TEMP_CHANGE)
+                        .isSignificantChangeFrom(previous));
+    }
+
+    @Test
+    public void testChangedWeatherIsSignificant() {
+        WearPushScheduler.Push previous = createPush(TODAY, 800, 20.0, 10.0);
+        WearPushScheduler.Push push = createPush(TODAY, 502, 20.0, 10.0);
+
+        assertTrue(push.isSignificantChangeFrom(previous));
+    }
+
+    /**
+     * The watch rolls over to the next day from the forecast it already has, so a forecast
+     * synced on another day than the last one isn't compared against it.
+     */
+    @Test
+    public void testNewDayIsNotSignificant() {
+        WearPushScheduler.Push previous = createPush(TODAY, 800, 20.0, 10.0);
+        WearPushScheduler.Push push = createPush(TOMORROW, 502, 30.0, 0.0);
+
+        assertFalse(push.isSignificantChangeFrom(previous));
+    }
+
+    /**
+     * Creates a push of a two day forecast starting on the given date, as if it was synced on
+     * that date.
+     */
+    private static WearPushScheduler.Push createPush(long today, int weatherId, double maxTemp,
+                                                     double minTemp) {
+        ForecastBatch forecast = new ForecastBatch(2);
+        forecast.add(today, weatherId, minTemp, maxTemp, 50.0, 1000.0, 2.0, 90.0);
+        forecast.add(today + SunshineDateUtils.DAY_IN_MILLIS, 800, 10.0, 20.0, 50.0, 1000.0,
+                2.0, 90.0);
+        return new WearPushScheduler.Push(null, forecast, today);
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.FixtureHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils.FORECAST_FIXTURE;
+import static com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils.readFixture;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the way NetworkUtils reads responses, using a {@link FixtureHttpServer} that serves a
+ * recorded forecast in place of the weather server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestNetworkUtils {
+
+    private static final String FORECAST_PATH = "/staticweather";
+
+    private final Context mTargetContext = InstrumentationRegistry.getTargetContext();
+
+    private FixtureHttpServer mServer;
+    private byte[] mForecastJsonBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FixtureHttpServer();
+        mForecastJsonBytes = readFixture(FORECAST_FIXTURE);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    /**
+     * The forecast parsed straight from the response stream must match the one parsed from the
+     * recorded JSON.
+     */
+    @Test
+    public void testReadResponseParsesStream() throws Exception {
+        mServer.enqueue(200, mForecastJsonBytes, "Content-Type", "application/json");
+
+        ContentValues[] expectedValues = OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                mTargetContext, new String(mForecastJsonBytes, "UTF-8"));
+
+        ContentValues[] actualValues = NetworkUtils.readResponseFromHttpUrl(
+                mServer.getUrl(FORECAST_PATH),
+                new NetworkUtils.ResponseHandler<ContentValues[]>() {
+                    @Override
+                    public ContentValues[] onResponse(InputStream responseStream,
+                                                      int contentLength) throws IOException {
+                        assertEquals("Content-Length wasn't passed to the handler",
+                                mForecastJsonBytes.length,
+                                contentLength);
+                        return OpenWeatherJsonUtils.getWeatherContentValuesFromStream(
+                                mTargetContext, responseStream);
+                    }
+                });
+
+        assertNotNull("No forecast was parsed from the response", actualValues);
+        assertEquals(expectedValues.length, actualValues.length);
+        for (int i = 0; i < expectedValues.length; i++) {
+            assertEquals("Day " + i + " doesn't match", expectedValues[i], actualValues[i]);
+        }
+    }
+
+    /**
+     * getResponseFromHttpUrl should still return the whole body as a String.
+     */
+    @Test
+    public void testGetResponseReturnsWholeBody() throws Exception {
+        mServer.enqueue(200, mForecastJsonBytes);
+
+        String response = NetworkUtils.getResponseFromHttpUrl(mServer.getUrl(FORECAST_PATH));
+
+        assertEquals(new String(mForecastJsonBytes, "UTF-8"), response);
+    }
+
+    /**
+     * Once a response with validators has been handled and committed, the next request must send
+     * them back, and a 304 from the server must skip the handler entirely and be counted as saved
+     * bytes.
+     */
+    @Test
+    public void testNotModifiedResponseSkipsHandler() throws Exception {
+        final String eTag = "\"forecast-v1\"";
+        final String lastModified = "Sat, 01 Oct 2016 00:00:00 GMT";
+
+        NetworkUtils.clearCachedValidators(mTargetContext);
+
+        mServer.enqueue(200, mForecastJsonBytes,
+                "ETag", eTag,
+                "Last-Modified", lastModified);
+        mServer.enqueue(304, null, "ETag", eTag);
+
+        URL url = mServer.getUrl(FORECAST_PATH);
+        final int[] handlerCalls = new int[1];
+        NetworkUtils.ResponseHandler<String> handler = new NetworkUtils.ResponseHandler<String>() {
+            @Override
+            public String onResponse(InputStream responseStream, int contentLength)
+                    throws IOException {
+                handlerCalls[0]++;
+                while (responseStream.read() != -1) {
+                    /* Consume the whole body, just like the forecast parser would */
+                }
+                return "handled";
+            }
+        };
+
+        /* The first request has nothing to validate against yet */
+        assertEquals("handled", NetworkUtils.readResponseFromHttpUrl(mTargetContext, url, handler));
+        Map<String, String> firstRequest = mServer.takeRequestHeaders();
+        assertNull(firstRequest.get("if-none-match"));
+        assertNull(firstRequest.get("if-modified-since"));
+        NetworkUtils.commitValidators(mTargetContext);
+
+        long notModifiedBefore = NetworkStats.getNotModifiedCount();
+        long bytesSavedBefore = NetworkStats.getBytesSaved();
+
+        /* The second request sends the validators back and is answered with a 304 */
+        assertNull(NetworkUtils.readResponseFromHttpUrl(mTargetContext, url, handler));
+        Map<String, String> secondRequest = mServer.takeRequestHeaders();
+        assertEquals(eTag, secondRequest.get("if-none-match"));
+        assertEquals(lastModified, secondRequest.get("if-modified-since"));
+
+        assertEquals("The handler must not be called for a 304", 1, handlerCalls[0]);
+        assertEquals(notModifiedBefore + 1, NetworkStats.getNotModifiedCount());
+        assertEquals(bytesSavedBefore + mForecastJsonBytes.length, NetworkStats.getBytesSaved());
+
+        NetworkUtils.clearCachedValidators(mTargetContext);
+    }
+
+    /**
+     * A response whose forecast couldn't be stored is never committed, so the next request must
+     * be unconditional and download the forecast again rather than be answered with a 304.
+     */
+    @Test
+    public void testValidatorsOnlySentOnceCommitted() throws Exception {
+        final String eTag = "\"forecast-v1\"";
+
+        NetworkUtils.clearCachedValidators(mTargetContext);
+
+        mServer.enqueue(200, mForecastJsonBytes, "ETag", eTag);
+        mServer.enqueue(200, mForecastJsonBytes, "ETag", eTag);
+        mServer.enqueue(304, null, "ETag", eTag);
+
+        URL url = mServer.getUrl(FORECAST_PATH);
+        NetworkUtils.ResponseHandler<String> handler = new NetworkUtils.ResponseHandler<String>() {
+            @Override
+            public String onResponse(InputStream responseStream, int contentLength)
+                    throws IOException {
+                while (responseStream.read() != -1) {
+                    /* Consume the whole body, just like the forecast parser would */
+                }
+                return "handled";
+            }
+        };
+
+        /* Storing this forecast fails, so its validators are never committed */
+        assertEquals("handled", NetworkUtils.readResponseFromHttpUrl(mTargetContext, url, handler));
+        mServer.takeRequestHeaders();
+
+        /* The next sync has to download the forecast again */
+        assertEquals("handled", NetworkUtils.readResponseFromHttpUrl(mTargetContext, url, handler));
+        assertNull(mServer.takeRequestHeaders().get("if-none-match"));
+        NetworkUtils.commitValidators(mTargetContext);
+
+        /* Now that it has been stored, the server may tell us that nothing changed */
+        assertNull(NetworkUtils.readResponseFromHttpUrl(mTargetContext, url, handler));
+        assertEquals(eTag, mServer.takeRequestHeaders().get("if-none-match"));
+
+        NetworkUtils.clearCachedValidators(mTargetContext);
+    }
+
+    /**
+     * A gzip compressed response must be asked for, decompressed before it reaches the handler
+     * and counted both as the bytes that came over the wire and the bytes they decompress to.
+     */
+    @Test
+    public void testGzipResponseIsDecompressed() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(mForecastJsonBytes);
+        gzip.close();
+
+        assertDecompressedResponse("gzip", compressed.toByteArray());
+    }
+
+    /**
+     * A deflate compressed response must be decompressed whether or not the server included the
+     * zlib header that it is supposed to send.
+     */
+    @Test
+    public void testDeflateResponseIsDecompressed() throws Exception {
+        assertDecompressedResponse("deflate", deflate(mForecastJsonBytes, false));
+        assertDecompressedResponse("deflate", deflate(mForecastJsonBytes, true));
+    }
+
+    /**
+     * A response that is larger than we're willing to read must fail rather than be read into
+     * memory.
+     */
+    @Test
+    public void testOversizedResponseIsRejected() throws Exception {
+        mServer.enqueue(200, new byte[NetworkUtils.MAX_RESPONSE_BYTES + 1]);
+
+        URL url = mServer.getUrl(FORECAST_PATH);
+        try {
+            NetworkUtils.getResponseFromHttpUrl(url);
+            fail("A response larger than MAX_RESPONSE_BYTES should have thrown an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * A small compressed response that decompresses to more than we're willing to read must fail
+     * just like an uncompressed one would.
+     */
+    @Test
+    public void testOversizedDecompressedResponseIsRejected() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(new byte[NetworkUtils.MAX_RESPONSE_BYTES + 1]);
+        gzip.close();
+        mServer.enqueue(200, compressed.toByteArray(), "Content-Encoding", "gzip");
+
+        URL url = mServer.getUrl(FORECAST_PATH);
+        try {
+            NetworkUtils.getResponseFromHttpUrl(url);
+            fail("A response inflating past MAX_RESPONSE_BYTES should have thrown an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Serves the given compressed forecast and checks that the handler gets the original JSON,
+     * and that NetworkStats counted the compressed and the decompressed bytes.
+     */
+    private void assertDecompressedResponse(String encoding, byte[] compressedBody)
+            throws Exception {
+        mServer.enqueue(200, compressedBody, "Content-Encoding", encoding);
+
+        long responsesBefore = NetworkStats.getCompressedResponseCount();
+        long wireBytesBefore = NetworkStats.getWireBytes();
+        long decodedBytesBefore = NetworkStats.getDecodedBytes();
+
+        String response = NetworkUtils.getResponseFromHttpUrl(mServer.getUrl(FORECAST_PATH));
+
+        String acceptEncoding = mServer.takeRequestHeaders().get("accept-encoding");
+        assertNotNull("Compressed responses weren't asked for", acceptEncoding);
+        assertTrue("The request doesn't accept " + encoding, acceptEncoding.contains(encoding));
+
+        assertEquals(new String(mForecastJsonBytes, "UTF-8"), response);
+        assertEquals(responsesBefore + 1, NetworkStats.getCompressedResponseCount());
+        assertEquals(wireBytesBefore + compressedBody.length, NetworkStats.getWireBytes());
+        assertEquals(decodedBytesBefore + mForecastJsonBytes.length,
+                NetworkStats.getDecodedBytes());
+    }
+
+    private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+            out.write(data);
+            out.close();
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
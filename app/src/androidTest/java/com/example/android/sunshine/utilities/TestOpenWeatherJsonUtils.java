@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Compares the streaming forecast parser with the JSONObject based one. Both parsers are run
+ * against a forecast recorded from the weather server (see the androidTest assets folder) and
+ * must produce exactly the same ContentValues.
+ * <p>
+ * {@link #benchmarkParsers()} isn't a real test, it just logs how long each parser takes and
+ * how much it allocates for the recorded forecast, so that we can compare them on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestOpenWeatherJsonUtils {
+
+    private static final String TAG = TestOpenWeatherJsonUtils.class.getSimpleName();
+
+    /* A 14 day forecast, as recorded from the static weather server */
+    static final String FORECAST_FIXTURE = "forecast_14_day.json";
+
+    private static final int BENCHMARK_WARMUP_RUNS = 10;
+    private static final int BENCHMARK_RUNS = 100;
+
+    /* Context of the app under test, used by the parsers to save the location's coordinates */
+    private final Context mTargetContext = InstrumentationRegistry.getTargetContext();
+
+    private byte[] mForecastJsonBytes;
+    private String mForecastJsonStr;
+
+    @Before
+    public void setUp() throws IOException {
+        mForecastJsonBytes = readFixture(FORECAST_FIXTURE);
+        mForecastJsonStr = new String(mForecastJsonBytes, "UTF-8");
+    }
+
+    /**
+     * Both parsers must return the same number of days, with the same values of the same type
+     * for each day.
+     */
+    @Test
+    public void testStreamingParserMatchesJsonObjectParser() throws Exception {
+        ContentValues[] expectedValues = OpenWeatherJsonUtils
+                .getWeatherContentValuesFromJson(mTargetContext, mForecastJsonStr);
+        ContentValues[] actualValues = OpenWeatherJsonUtils
+                .getWeatherContentValuesFromStream(mTargetContext,
+                        new ByteArrayInputStream(mForecastJsonBytes));
+
+        assertNotNull("JSONObject parser returned no values", expectedValues);
+        assertNotNull("Streaming parser returned no values", actualValues);
+        assertEquals("Parsers returned a different number of days",
+                expectedValues.length,
+                actualValues.length);
+
+        for (int i = 0; i < expectedValues.length; i++) {
+            assertEquals("Parsers disagree on day " + i,
+                    expectedValues[i],
+                    actualValues[i]);
+        }
+    }
+
+    /**
+     * An error code from the server should make both parsers return null.
+     */
+    @Test
+    public void testStreamingParserReturnsNullForErrorCode() throws Exception {
+        String notFoundJson = "{\"message\":\"city not found\",\"cod\":\"404\"}";
+
+        assertNull(OpenWeatherJsonUtils
+                .getWeatherContentValuesFromJson(mTargetContext, notFoundJson));
+        assertNull(OpenWeatherJsonUtils
+                .getWeatherContentValuesFromStream(mTargetContext,
+                        new ByteArrayInputStream(notFoundJson.getBytes("UTF-8"))));
+    }
+
+    /**
+     * Runs each parser over the recorded forecast and logs the average time and allocations per
+     * parse. The String parser is timed from the response bytes, as that is what it used to be
+     * given by NetworkUtils.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void benchmarkParsers() throws Exception {
+        for (int i = 0; i < BENCHMARK_WARMUP_RUNS; i++) {
+            parseWithJsonObject();
+            parseWithStream();
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                parseWithJsonObject();
+            }
+            logResult("JSONObject", System.nanoTime() - start,
+                    Debug.getThreadAllocCount(), Debug.getThreadAllocSize());
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                parseWithStream();
+            }
+            logResult("JsonReader", System.nanoTime() - start,
+                    Debug.getThreadAllocCount(), Debug.getThreadAllocSize());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private void parseWithJsonObject() throws Exception {
+        OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mTargetContext,
+                new String(mForecastJsonBytes, "UTF-8"));
+    }
+
+    private void parseWithStream() throws Exception {
+        OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mTargetContext,
+                new ByteArrayInputStream(mForecastJsonBytes));
+    }
+
+    private static void logResult(String parser, long elapsedNanos, int allocCount, int allocSize) {
+        Log.i(TAG, parser + ": " + (elapsedNanos / BENCHMARK_RUNS / 1000) + " us, "
+                + (allocCount / BENCHMARK_RUNS) + " allocations, "
+                + (allocSize / BENCHMARK_RUNS) + " bytes per parse");
+    }
+
+    /**
+     * Reads one of the recorded responses from the test APK's assets.
+     */
+    static byte[] readFixture(String fixtureName) throws IOException {
+        InputStream in = InstrumentationRegistry.getContext().getAssets().open(fixtureName);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
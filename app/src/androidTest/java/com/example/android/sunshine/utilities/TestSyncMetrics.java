@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.FixtureHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils.FORECAST_FIXTURE;
+import static com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils.readFixture;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that SyncMetrics records what it is given, and that NetworkUtils records the stages of
+ * a request into it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncMetrics {
+
+    @Before
+    public void setUp() {
+        SyncMetrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        SyncMetrics.reset();
+    }
+
+    @Test
+    public void testDumpContainsRecordedMetrics() {
+        SyncMetrics.recordStageNanos(SyncMetrics.STAGE_DB_WRITE, TimeUnit.MILLISECONDS.toNanos(5));
+        SyncMetrics.recordStageNanos(SyncMetrics.STAGE_DB_WRITE, TimeUnit.MILLISECONDS.toNanos(7));
+        SyncMetrics.recordStored(14, 3);
+        SyncMetrics.recordOutcome("success");
+        SyncMetrics.recordOutcome("success");
+        SyncMetrics.recordFailure(SyncMetrics.STAGE_CONNECT, new SocketTimeoutException());
+        SyncMetrics.recordWearPush(SyncMetrics.WEAR_PUSH_URGENT);
+        SyncMetrics.recordWearPush(SyncMetrics.WEAR_PUSH_COALESCED);
+        SyncMetrics.recordWearPush(SyncMetrics.WEAR_PUSH_COALESCED);
+
+        assertEquals(2, SyncMetrics.getStageCount(SyncMetrics.STAGE_DB_WRITE));
+        assertEquals(2, SyncMetrics.getOutcomeCount("success"));
+        assertEquals(2, SyncMetrics.getWearPushCount(SyncMetrics.WEAR_PUSH_COALESCED));
+
+        String dump = dump();
+        assertTrue(dump, dump.contains("db write: 2 samples, mean 6, p50 <= 8, p95 <= 8, max 7"));
+        assertTrue(dump, dump.contains("days stored: 14, rows touched: 3"));
+        assertTrue(dump, dump.contains("connect: java.net.SocketTimeoutException=1"));
+        assertTrue(dump, dump.contains("wear pushes: {coalesced=2, urgent=1}"));
+    }
+
+    /**
+     * Every stage of a request that was read in full must have been recorded exactly once.
+     */
+    @Test
+    public void testRequestStagesAreRecorded() throws IOException {
+        FixtureHttpServer server = new FixtureHttpServer();
+        try {
+            server.enqueue(200, readFixture(FORECAST_FIXTURE));
+
+            NetworkUtils.getResponseFromHttpUrl(server.getUrl("/staticweather"));
+        } finally {
+            server.shutdown();
+        }
+
+        assertEquals(1, SyncMetrics.getStageCount(SyncMetrics.STAGE_CONNECT));
+        assertEquals(1, SyncMetrics.getStageCount(SyncMetrics.STAGE_FIRST_BYTE));
+        assertEquals(1, SyncMetrics.getStageCount(SyncMetrics.STAGE_DOWNLOAD));
+        assertEquals(1, SyncMetrics.getStageCount(SyncMetrics.STAGE_PARSE));
+    }
+
+    private static String dump() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        SyncMetrics.dump(writer);
+        writer.flush();
+        return out.toString();
+    }
+}
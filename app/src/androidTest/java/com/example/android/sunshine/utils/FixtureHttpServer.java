@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tiny HTTP/1.1 server that stands in for the weather server in tests. Responses are queued
+ * up front with {@link #enqueue(int, byte[], String...)} and served in order, one per
+ * connection. The headers of each request are recorded and can be inspected with
+ * {@link #takeRequestHeaders()}.
+ * <p>
+ * This is only meant to serve recorded fixtures to HttpURLConnection on the loopback interface.
+ * It doesn't support keep-alive, chunked requests or request bodies.
+ */
+public class FixtureHttpServer {
+
+    private static final long TAKE_REQUEST_TIMEOUT_SECONDS = 5;
+
+    private final ServerSocket mServerSocket;
+    private final BlockingQueue<Response> mResponses = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Map<String, String>> mRequestHeaders = new LinkedBlockingQueue<>();
+    private final Thread mServerThread;
+
+    private static class Response {
+        final int code;
+        final byte[] body;
+        final Map<String, String> headers;
+
+        Response(int code, byte[] body, Map<String, String> headers) {
+            this.code = code;
+            this.body = body;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * Starts a server listening on a free port of the loopback interface.
+     *
+     * @throws IOException If no socket could be opened
+     */
+    public FixtureHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        mServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "FixtureHttpServer");
+        mServerThread.start();
+    }
+
+    /**
+     * Returns a URL pointing to the given path on this server.
+     *
+     * @param path The path of the URL, starting with a slash
+     * @return The URL to request
+     */
+    public URL getUrl(String path) {
+        try {
+            return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Queues a response to be served to the next request. A Content-Length header is added for
+     * the body unless one is given.
+     *
+     * @param code        The HTTP status code
+     * @param body        The body of the response, may be null for an empty body
+     * @param headerPairs Header names and values, alternating
+     */
+    public void enqueue(int code, byte[] body, String... headerPairs) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < headerPairs.length; i += 2) {
+            headers.put(headerPairs[i], headerPairs[i + 1]);
+        }
+        mResponses.add(new Response(code, body == null ? new byte[0] : body, headers));
+    }
+
+    /**
+     * Returns the headers of the oldest request that hasn't been taken yet, waiting a few
+     * seconds for one to arrive if necessary. Header names are lower case.
+     *
+     * @return The request's headers, or null if no request arrived in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public Map<String, String> takeRequestHeaders() throws InterruptedException {
+        return mRequestHeaders.poll(TAKE_REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the server. Requests still in progress are dropped.
+     */
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            /* We're shutting down, there is nothing more to do with this socket */
+        }
+        mServerThread.interrupt();
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket = null;
+            try {
+                socket = mServerSocket.accept();
+                mRequestHeaders.add(readRequestHeaders(socket.getInputStream()));
+
+                Response response = mResponses.poll();
+                if (response == null) {
+                    response = new Response(404, new byte[0], new HashMap<String, String>());
+                }
+                writeResponse(socket.getOutputStream(), response);
+            } catch (IOException e) {
+                /* Either the server was shut down or the client went away */
+            } finally {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> readRequestHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+
+        /* The request line itself is not a header, so we skip it */
+        readLine(in);
+
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    private static void writeResponse(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(response.code).append(' ')
+                .append(getReasonPhrase(response.code)).append("\r\n");
+
+        boolean hasContentLength = false;
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            hasContentLength |= "content-length".equalsIgnoreCase(header.getKey());
+        }
+
+        /* A 304 never has a body, whatever was queued with it */
+        boolean hasBody = response.code != 304;
+        if (!hasContentLength && hasBody) {
+            head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        if (hasBody) {
+            out.write(response.body);
+        }
+        out.flush();
+    }
+
+    private static String getReasonPhrase(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            default:
+                return "Status";
+        }
+    }
+}
@@ -25,9 +25,6 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.sunshine.utilities.SunshineDateUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
-
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
@@ -129,12 +126,11 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        ForecastRow row = getRow(position);
 
         /****************
          * Weather Icon *
          ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
         int weatherImageId;
 
         int viewType = getItemViewType(position);
@@ -142,13 +138,11 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         switch (viewType) {
 
             case VIEW_TYPE_TODAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getLargeArtResourceIdForWeatherCondition(weatherId);
+                weatherImageId = row.largeIconResourceId;
                 break;
 
             case VIEW_TYPE_FUTURE_DAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getSmallArtResourceIdForWeatherCondition(weatherId);
+                weatherImageId = row.smallIconResourceId;
                 break;
 
             default:
@@ -160,59 +154,46 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         /****************
          * Weather Date *
          ****************/
-         /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
-         /* Get human readable string using our utility method */
-        String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
-
-         /* Display friendly date string */
-        forecastAdapterViewHolder.dateView.setText(dateString);
+        forecastAdapterViewHolder.dateView.setText(row.dateText);
 
         /***********************
          * Weather Description *
          ***********************/
-        String description = SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId);
-         /* Create the accessibility (a11y) String from the weather description */
-        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
-
          /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.descriptionView.setText(description);
-        forecastAdapterViewHolder.descriptionView.setContentDescription(descriptionA11y);
+        forecastAdapterViewHolder.descriptionView.setText(row.description);
+        forecastAdapterViewHolder.descriptionView.setContentDescription(row.descriptionA11y);
 
         /**************************
          * High (max) temperature *
          **************************/
-         /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String highString = SunshineWeatherUtils.formatTemperature(mContext, highInCelsius);
-         /* Create the accessibility (a11y) String from the weather description */
-        String highA11y = mContext.getString(R.string.a11y_high_temp, highString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.highTempView.setText(highString);
-        forecastAdapterViewHolder.highTempView.setContentDescription(highA11y);
+        forecastAdapterViewHolder.highTempView.setText(row.highText);
+        forecastAdapterViewHolder.highTempView.setContentDescription(row.highA11y);
 
         /*************************
          * Low (min) temperature *
          *************************/
-         /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String lowString = SunshineWeatherUtils.formatTemperature(mContext, lowInCelsius);
-        String lowA11y = mContext.getString(R.string.a11y_low_temp, lowString);
+        forecastAdapterViewHolder.lowTempView.setText(row.lowText);
+        forecastAdapterViewHolder.lowTempView.setContentDescription(row.lowA11y);
+    }
 
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.lowTempView.setText(lowString);
-        forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
+    /**
+     * Returns the formatted row at the given position. ForecastLoader formats every row on its
+     * background thread; only a cursor that didn't come from it is formatted here, as it binds.
+     *
+     * @param position index within our RecyclerView and Cursor
+     * @return The row to display at that position
+     */
+    private ForecastRow getRow(int position) {
+        if (mCursor instanceof ForecastLoader.ForecastCursor) {
+            return ((ForecastLoader.ForecastCursor) mCursor).getRow(position);
+        }
+
+        mCursor.moveToPosition(position);
+        return ForecastRow.create(mContext,
+                mCursor.getLong(MainActivity.INDEX_WEATHER_DATE),
+                mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID),
+                mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP),
+                mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP));
     }
 
     /**
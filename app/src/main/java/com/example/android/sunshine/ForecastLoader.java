@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Loads the forecast list like a CursorLoader, and formats a {@link ForecastRow} for every day
+ * on the same background thread, right after the query. The cursor it delivers is a
+ * {@link ForecastCursor}, which hands those rows to the adapter.
+ * <p>
+ * Rows are cached by date, for as long as the units, the locale and the current day stay the
+ * same. A reload after a sync only formats the days whose weather actually changed.
+ */
+class ForecastLoader extends CursorLoader {
+
+    /* Guarded by this loader, the rows may be formatted on more than one thread at a time */
+    private final LongSparseArray<ForecastRow> mRowsByDate = new LongSparseArray<>();
+    private boolean mCachedMetric;
+    private Locale mCachedLocale;
+    private long mCachedToday;
+
+    /**
+     * Takes the same arguments as {@link CursorLoader}. The projection must be
+     * {@link MainActivity#MAIN_FORECAST_PROJECTION}, and the selection must be the one for today
+     * onwards, see {@link WeatherContract.WeatherEntry#getSqlSelectForTodayOnwards()}.
+     */
+    ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        return new ForecastCursor(cursor, formatRows(cursor));
+    }
+
+    /**
+     * If the units, the locale or the day have changed since the rows were formatted, the rows
+     * the adapter shows are out of date, even if the forecast isn't. The units normally come with
+     * a content change anyway, but the locale and the day don't. A new day also moves the
+     * selection on to it, so that the reload no longer includes yesterday.
+     */
+    @Override
+    protected void onStartLoading() {
+        boolean dayChanged = updateSelectionForToday();
+        super.onStartLoading();
+        synchronized (this) {
+            if (dayChanged || (mCachedLocale != null && !isCacheCurrent())) {
+                forceLoad();
+            }
+        }
+    }
+
+    /**
+     * A sync after midnight reloads the list too, and must not bring yesterday back.
+     */
+    @Override
+    public void onContentChanged() {
+        updateSelectionForToday();
+        super.onContentChanged();
+    }
+
+    /**
+     * The selection's argument is today's date, as it was when the loader was created. Once the
+     * day has changed, it is computed again, or the list would still start with yesterday.
+     *
+     * @return Whether the day changed since the selection was last computed
+     */
+    private boolean updateSelectionForToday() {
+        String[] todayOnwards = WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards();
+        if (Arrays.equals(todayOnwards, getSelectionArgs())) {
+            return false;
+        }
+        setSelectionArgs(todayOnwards);
+        return true;
+    }
+
+    private synchronized ForecastRow[] formatRows(Cursor cursor) {
+        if (!isCacheCurrent()) {
+            mRowsByDate.clear();
+            mCachedMetric = SunshinePreferences.isMetric(getContext());
+            mCachedLocale = Locale.getDefault();
+            mCachedToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+        }
+
+        ForecastRow[] rows = new ForecastRow[cursor.getCount()];
+        for (int position = 0; cursor.moveToPosition(position); position++) {
+            long date = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            int weatherId = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+            double high = cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+            double low = cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+
+            ForecastRow row = mRowsByDate.get(date);
+            if (row == null || !row.matches(weatherId, high, low)) {
+                row = ForecastRow.create(getContext(), date, weatherId, high, low);
+                mRowsByDate.put(date, row);
+            }
+            rows[position] = row;
+        }
+        cursor.moveToPosition(-1);
+        return rows;
+    }
+
+    private boolean isCacheCurrent() {
+        return mCachedLocale != null
+                && mCachedLocale.equals(Locale.getDefault())
+                && mCachedMetric == SunshinePreferences.isMetric(getContext())
+                && mCachedToday == SunshineDateUtils.getNormalizedUtcDateForToday();
+    }
+
+    /**
+     * The forecast list's cursor, along with the formatted row of each of its positions.
+     */
+    static class ForecastCursor extends CursorWrapper {
+
+        private final ForecastRow[] mRows;
+
+        ForecastCursor(Cursor cursor, ForecastRow[] rows) {
+            super(cursor);
+            mRows = rows;
+        }
+
+        ForecastRow getRow(int position) {
+            return mRows[position];
+        }
+    }
+}
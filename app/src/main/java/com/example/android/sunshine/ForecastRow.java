@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+/**
+ * Everything one row of the forecast list displays, formatted and ready to be set on its views.
+ * Formatting a row means formatting dates, temperatures and several resource strings, which is
+ * too much work to do for every row as it scrolls into view, so {@link ForecastLoader} does it
+ * on its background thread and {@link ForecastAdapter} only assigns the results.
+ */
+final class ForecastRow {
+
+    /* The values the row was formatted from, to tell whether it still matches the database */
+    final long date;
+    final int weatherId;
+    final double highInCelsius;
+    final double lowInCelsius;
+
+    /* The weather icon, in the size of the today layout and in the size of the other rows */
+    final int largeIconResourceId;
+    final int smallIconResourceId;
+
+    final CharSequence dateText;
+    final CharSequence description;
+    final CharSequence descriptionA11y;
+    final CharSequence highText;
+    final CharSequence highA11y;
+    final CharSequence lowText;
+    final CharSequence lowA11y;
+
+    private ForecastRow(Context context, long date, int weatherId, double highInCelsius,
+                        double lowInCelsius) {
+        this.date = date;
+        this.weatherId = weatherId;
+        this.highInCelsius = highInCelsius;
+        this.lowInCelsius = lowInCelsius;
+
+        largeIconResourceId =
+                SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId);
+        smallIconResourceId =
+                SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId);
+
+        /* Get human readable string using our utility method */
+        dateText = SunshineDateUtils.getFriendlyDateString(context, date, false);
+
+        String description = SunshineWeatherUtils.getStringForWeatherCondition(context, weatherId);
+        this.description = description;
+        /* Create the accessibility (a11y) String from the weather description */
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+
+        /*
+         * If the user's preference for weather is fahrenheit, formatTemperature will convert
+         * the temperature. This method will also append either °C or °F to the temperature
+         * String.
+         */
+        String highString = SunshineWeatherUtils.formatTemperature(context, highInCelsius);
+        highText = highString;
+        highA11y = context.getString(R.string.a11y_high_temp, highString);
+
+        String lowString = SunshineWeatherUtils.formatTemperature(context, lowInCelsius);
+        lowText = lowString;
+        lowA11y = context.getString(R.string.a11y_low_temp, lowString);
+    }
+
+    /**
+     * Formats a row of the forecast list.
+     *
+     * @param context       Used for resources and the user's preferences
+     * @param date          The normalized UTC date of the day
+     * @param weatherId     The weather condition ID of the day
+     * @param highInCelsius The high temperature of the day, in degrees celsius
+     * @param lowInCelsius  The low temperature of the day, in degrees celsius
+     * @return The formatted row
+     */
+    static ForecastRow create(Context context, long date, int weatherId, double highInCelsius,
+                              double lowInCelsius) {
+        return new ForecastRow(context, date, weatherId, highInCelsius, lowInCelsius);
+    }
+
+    /**
+     * @return Whether this row was formatted from the given values
+     */
+    boolean matches(int weatherId, double highInCelsius, double lowInCelsius) {
+        return this.weatherId == weatherId
+                && this.highInCelsius == highInCelsius
+                && this.lowInCelsius == lowInCelsius;
+    }
+}
@@ -20,7 +20,6 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
@@ -35,6 +34,10 @@ import android.widget.ProgressBar;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.utilities.SyncMetrics;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 public class MainActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor>,
@@ -83,6 +86,10 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        /* The list formats every temperature with the user's units, have them ready by then */
+        SunshinePreferences.preload(this);
+
         setContentView(R.layout.activity_forecast);
         getSupportActionBar().setElevation(0f);
 
@@ -156,6 +163,14 @@ public class MainActivity extends AppCompatActivity implements
 
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        /* When the user opens Sunshine tells the sync when fresh weather matters most */
+        SunshineSyncUtils.recordAppOpened(this);
+    }
+
     /**
      * Uses the URI scheme for showing a location found on a map in conjunction with
      * an implicit Intent. This super-handy Intent is detailed in the "Common Intents" page of
@@ -208,12 +223,14 @@ public class MainActivity extends AppCompatActivity implements
                  * We created a handy method to do that in our WeatherEntry class.
                  */
                 String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+                String[] selectionArgs = WeatherContract.WeatherEntry
+                        .getSelectionArgsForTodayOnwards();
 
-                return new CursorLoader(this,
+                return new ForecastLoader(this,
                         forecastQueryUri,
                         MAIN_FORECAST_PROJECTION,
                         selection,
-                        null,
+                        selectionArgs,
                         sortOrder);
 
             default:
@@ -343,4 +360,14 @@ public class MainActivity extends AppCompatActivity implements
 
         return super.onOptionsItemSelected(item);
     }
+
+    /**
+     * Adds Sunshine's sync metrics to what the Activity prints for
+     * "adb shell dumpsys activity top", so that they can be read from any device the app runs on.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        SyncMetrics.dump(writer);
+    }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+
+import java.util.Arrays;
+
+/**
+ * A forecast of one or more days, held in one primitive array per column of the weather table.
+ * This is how a forecast travels from the JSON parser to the database, the wear device and the
+ * notification, without a ContentValues map and a boxed value per column for every day.
+ * <p>
+ * Days are added in order with {@link #add}. Once the batch has been handed on it isn't
+ * modified anymore, so it can be read from any thread.
+ * <p>
+ * {@link #toContentValues()} and {@link #fromContentValues(ContentValues[])} convert to and
+ * from the ContentValues[] used by WeatherProvider's bulkInsert, for code that still needs them.
+ */
+public final class ForecastBatch {
+
+    /* A forecast is normally 14 days long */
+    private static final int DEFAULT_CAPACITY = 14;
+
+    /* The number of values each day has, one for each of the arrays below */
+    private static final int COLUMN_COUNT = 8;
+
+    private int mSize;
+
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of days the batch can hold before it needs to grow
+     */
+    public ForecastBatch(int capacity) {
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Adds a day to the end of the forecast. See {@link WeatherContract.WeatherEntry} for what
+     * each of the values means.
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                    double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    /**
+     * @return The number of days in the forecast
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public double getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    public double getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public double getHumidity(int day) {
+        return mHumidities[day];
+    }
+
+    public double getPressure(int day) {
+        return mPressures[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return mWindSpeeds[day];
+    }
+
+    public double getDegrees(int day) {
+        return mDegrees[day];
+    }
+
+    /**
+     * Finds a day in the forecast by its date.
+     *
+     * @param normalizedUtcDate The normalized date of the day to find
+     * @return The index of the day, or -1 if the forecast doesn't include that date
+     */
+    public int indexOfDate(long normalizedUtcDate) {
+        for (int day = 0; day < mSize; day++) {
+            if (mDates[day] == normalizedUtcDate) {
+                return day;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts the forecast to one ContentValues per day, holding a Long date, an Integer
+     * weather ID and Doubles for everything else.
+     *
+     * @return The forecast as ContentValues, ready to be passed to bulkInsert
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] weatherContentValues = new ContentValues[mSize];
+        for (int day = 0; day < mSize; day++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, mDates[day]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidities[day]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressures[day]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[day]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees[day]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[day]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[day]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[day]);
+            weatherContentValues[day] = weatherValues;
+        }
+        return weatherContentValues;
+    }
+
+    /**
+     * Builds a forecast from ContentValues, as they are passed to bulkInsert. Each ContentValues
+     * must hold a value for every column of the weather table other than its ID, and nothing
+     * else.
+     *
+     * @param values One set of values per day
+     * @return The forecast, or null if any of the values can't be stored in a ForecastBatch
+     */
+    public static ForecastBatch fromContentValues(ContentValues[] values) {
+        ForecastBatch batch = new ForecastBatch(values.length);
+        for (ContentValues value : values) {
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            Integer weatherId = value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            Double minTemp = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+            Double maxTemp = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            Double humidity = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+            Double pressure = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+            Double windSpeed = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+            Double degrees = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+
+            if (value.size() != COLUMN_COUNT || date == null || weatherId == null
+                    || minTemp == null || maxTemp == null || humidity == null
+                    || pressure == null || windSpeed == null || degrees == null) {
+                return null;
+            }
+
+            batch.add(date, weatherId, minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+        }
+        return batch;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mDates.length * 2);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+}
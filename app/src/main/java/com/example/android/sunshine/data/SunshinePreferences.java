@@ -31,6 +31,83 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * The preferences the app reads most often, as they are right now. Null until they are first
+     * needed, or preloaded. See getSnapshot.
+     */
+    private static volatile Snapshot sSnapshot;
+
+    /* The keys the snapshot is read with, guarded by SunshinePreferences.class */
+    private static Keys sKeys;
+
+    /*
+     * Keeps the snapshot up to date. SharedPreferences only holds on to its listeners weakly, so
+     * we have to hold on to it ourselves.
+     */
+    private static SharedPreferences.OnSharedPreferenceChangeListener sSnapshotUpdater;
+
+    /**
+     * Loads the preferences snapshot on a background thread, so that it is ready by the time
+     * anything on the main thread asks for it. Reading SharedPreferences for the first time
+     * means reading a file.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void preload(Context context) {
+        final Context appContext = context.getApplicationContext();
+        if (sSnapshot != null) {
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                getSnapshot(appContext);
+            }
+        }).start();
+    }
+
+    /**
+     * Returns the preferences the app reads most often, without going through SharedPreferences
+     * or looking up a single key. The snapshot is loaded once and replaced whenever any of them
+     * changes, so it is cheap enough to call for every item of a list as it is bound.
+     *
+     * @param context Used to access SharedPreferences the first time
+     * @return The preferences as they are right now
+     */
+    public static Snapshot getSnapshot(Context context) {
+        Snapshot snapshot = sSnapshot;
+        if (snapshot == null) {
+            snapshot = loadSnapshot(context.getApplicationContext());
+        }
+        return snapshot;
+    }
+
+    private static synchronized Snapshot loadSnapshot(Context context) {
+        if (sSnapshot == null) {
+            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+            sKeys = new Keys(context);
+            sSnapshotUpdater = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sp, String key) {
+                    updateSnapshot(sp);
+                }
+            };
+            sp.registerOnSharedPreferenceChangeListener(sSnapshotUpdater);
+            sSnapshot = new Snapshot(sp, sKeys);
+        }
+        return sSnapshot;
+    }
+
+    /**
+     * Reads the snapshot again. The change listener does this too, but only once it gets to run
+     * on the main thread, so our own setters call this to make their changes visible right away.
+     */
+    private static synchronized void updateSnapshot(SharedPreferences sp) {
+        if (sSnapshot != null) {
+            sSnapshot = new Snapshot(sp, sKeys);
+        }
+    }
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -48,6 +125,7 @@ public final class SunshinePreferences {
         editor.putLong(PREF_COORD_LAT, Double.doubleToRawLongBits(lat));
         editor.putLong(PREF_COORD_LONG, Double.doubleToRawLongBits(lon));
         editor.apply();
+        updateSnapshot(sp);
     }
 
     /**
@@ -62,6 +140,7 @@ public final class SunshinePreferences {
         editor.remove(PREF_COORD_LAT);
         editor.remove(PREF_COORD_LONG);
         editor.apply();
+        updateSnapshot(sp);
     }
 
     /**
@@ -74,12 +153,7 @@ public final class SunshinePreferences {
      * "94043,USA" if SharedPreferences have not been implemented yet.
      */
     public static String getPreferredWeatherLocation(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForLocation = context.getString(R.string.pref_location_key);
-        String defaultLocation = context.getString(R.string.pref_location_default);
-
-        return sp.getString(keyForLocation, defaultLocation);
+        return getSnapshot(context).getPreferredWeatherLocation();
     }
 
     /**
@@ -89,19 +163,7 @@ public final class SunshinePreferences {
      * @return true if metric display should be used, false if imperial display should be used
      */
     public static boolean isMetric(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForUnits = context.getString(R.string.pref_units_key);
-        String defaultUnits = context.getString(R.string.pref_units_metric);
-        String preferredUnits = sp.getString(keyForUnits, defaultUnits);
-        String metric = context.getString(R.string.pref_units_metric);
-
-        boolean userPrefersMetric = false;
-        if (metric.equals(preferredUnits)) {
-            userPrefersMetric = true;
-        }
-
-        return userPrefersMetric;
+        return getSnapshot(context).isMetric();
     }
 
     /**
@@ -113,25 +175,8 @@ public final class SunshinePreferences {
      * @return an array containing the two coordinate values for the user's preferred location
      */
     public static double[] getLocationCoordinates(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        double[] preferredCoordinates = new double[2];
-
-        /*
-         * This is a hack we have to resort to since you can't store doubles in SharedPreferences.
-         *
-         * Double.doubleToLongBits returns an integer corresponding to the bits of the given
-         * IEEE 754 double precision value.
-         *
-         * Double.longBitsToDouble does the opposite, converting a long (that represents a double)
-         * into the double itself.
-         */
-        preferredCoordinates[0] = Double
-                 .longBitsToDouble(sp.getLong(PREF_COORD_LAT, Double.doubleToRawLongBits(0.0)));
-        preferredCoordinates[1] = Double
-                .longBitsToDouble(sp.getLong(PREF_COORD_LONG, Double.doubleToRawLongBits(0.0)));
-
-        return preferredCoordinates;
+        Snapshot snapshot = getSnapshot(context);
+        return new double[]{snapshot.getLatitude(), snapshot.getLongitude()};
     }
 
     /**
@@ -142,17 +187,7 @@ public final class SunshinePreferences {
      * @return true if lat/long are saved in SharedPreferences
      */
     public static boolean isLocationLatLonAvailable(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        boolean spContainLatitude = sp.contains(PREF_COORD_LAT);
-        boolean spContainLongitude = sp.contains(PREF_COORD_LONG);
-
-        boolean spContainBothLatitudeAndLongitude = false;
-        if (spContainLatitude && spContainLongitude) {
-            spContainBothLatitudeAndLongitude = true;
-        }
-
-        return spContainBothLatitudeAndLongitude;
+        return getSnapshot(context).isLocationLatLonAvailable();
     }
 
     /**
@@ -163,26 +198,7 @@ public final class SunshinePreferences {
      * @return true if the user prefers to see notifications, false otherwise
      */
     public static boolean areNotificationsEnabled(Context context) {
-        /* Key for accessing the preference for showing notifications */
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-
-        /*
-         * In Sunshine, the user has the ability to say whether she would like notifications
-         * enabled or not. If no preference has been chosen, we want to be able to determine
-         * whether or not to show them. To do this, we reference a bool stored in bools.xml.
-         */
-        boolean shouldDisplayNotificationsByDefault = context
-                .getResources()
-                .getBoolean(R.bool.show_notifications_by_default);
-
-        /* As usual, we use the default SharedPreferences to access the user's preferences */
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        /* If a value is stored with the key, we extract it here. If not, use a default. */
-        boolean shouldDisplayNotifications = sp
-                .getBoolean(displayNotificationsKey, shouldDisplayNotificationsByDefault);
-
-        return shouldDisplayNotifications;
+        return getSnapshot(context).areNotificationsEnabled();
     }
 
     /**
@@ -242,4 +258,114 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * The preferences the app reads most often, read once. A snapshot never changes, when the
+     * preferences change it is replaced by a new one, so it can be read from any thread.
+     */
+    public static final class Snapshot {
+
+        private final String mPreferredWeatherLocation;
+        private final boolean mMetric;
+        private final boolean mLocationLatLonAvailable;
+        private final double mLatitude;
+        private final double mLongitude;
+        private final boolean mNotificationsEnabled;
+
+        Snapshot(SharedPreferences sp, Keys keys) {
+            mPreferredWeatherLocation = sp.getString(keys.mLocation, keys.mLocationDefault);
+            mMetric = keys.mUnitsMetric.equals(sp.getString(keys.mUnits, keys.mUnitsMetric));
+
+            mLocationLatLonAvailable = sp.contains(PREF_COORD_LAT) && sp.contains(PREF_COORD_LONG);
+
+            /*
+             * This is a hack we have to resort to since you can't store doubles in
+             * SharedPreferences.
+             *
+             * Double.doubleToLongBits returns an integer corresponding to the bits of the given
+             * IEEE 754 double precision value.
+             *
+             * Double.longBitsToDouble does the opposite, converting a long (that represents a
+             * double) into the double itself.
+             */
+            mLatitude = Double.longBitsToDouble(
+                    sp.getLong(PREF_COORD_LAT, Double.doubleToRawLongBits(0.0)));
+            mLongitude = Double.longBitsToDouble(
+                    sp.getLong(PREF_COORD_LONG, Double.doubleToRawLongBits(0.0)));
+
+            mNotificationsEnabled =
+                    sp.getBoolean(keys.mNotifications, keys.mNotificationsDefault);
+        }
+
+        /**
+         * @return The location the user has set, "94043,USA" by default
+         */
+        public String getPreferredWeatherLocation() {
+            return mPreferredWeatherLocation;
+        }
+
+        /**
+         * @return true if metric display should be used, false if imperial display should be used
+         */
+        public boolean isMetric() {
+            return mMetric;
+        }
+
+        /**
+         * @return true if lat/long are saved in SharedPreferences
+         */
+        public boolean isLocationLatLonAvailable() {
+            return mLocationLatLonAvailable;
+        }
+
+        /**
+         * @return The latitude of the user's location, or 0 if it isn't available
+         */
+        public double getLatitude() {
+            return mLatitude;
+        }
+
+        /**
+         * @return The longitude of the user's location, or 0 if it isn't available
+         */
+        public double getLongitude() {
+            return mLongitude;
+        }
+
+        /**
+         * @return true if the user prefers to see notifications, false otherwise
+         */
+        public boolean areNotificationsEnabled() {
+            return mNotificationsEnabled;
+        }
+    }
+
+    /**
+     * The keys and default values of the preferences in the snapshot. They come from resources,
+     * so we only look them up once.
+     */
+    private static final class Keys {
+
+        final String mLocation;
+        final String mLocationDefault;
+        final String mUnits;
+        final String mUnitsMetric;
+        final String mNotifications;
+
+        /*
+         * In Sunshine, the user has the ability to say whether they would like notifications
+         * enabled or not. If no preference has been chosen, we use a bool stored in bools.xml.
+         */
+        final boolean mNotificationsDefault;
+
+        Keys(Context context) {
+            mLocation = context.getString(R.string.pref_location_key);
+            mLocationDefault = context.getString(R.string.pref_location_default);
+            mUnits = context.getString(R.string.pref_units_key);
+            mUnitsMetric = context.getString(R.string.pref_units_metric);
+            mNotifications = context.getString(R.string.pref_enable_notifications_key);
+            mNotificationsDefault = context.getResources()
+                    .getBoolean(R.bool.show_notifications_by_default);
+        }
+    }
+}
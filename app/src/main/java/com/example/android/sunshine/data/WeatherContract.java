@@ -56,6 +56,12 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Appended to the weather path to bulkInsert a whole forecast as a sync, see
+     * WeatherEntry.SYNC_URI.
+     */
+    public static final String PATH_SYNC = "sync";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -64,6 +70,17 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
+        /*
+         * bulkInsert a complete forecast at this URI to replace the forecast in the weather table
+         * with it. Rather than deleting everything and inserting it all again, only the days
+         * that changed are written, and days the new forecast doesn't cover are deleted. The
+         * number returned by bulkInsert is the number of rows that were inserted, updated or
+         * deleted.
+         */
+        public static final Uri SYNC_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_SYNC)
+                .build();
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
@@ -123,16 +140,34 @@ public class WeatherContract {
                     .build();
         }
 
+        /*
+         * Name of the index that covers the columns read by the forecast list and the detail
+         * screen, ordered by date. Queries that only read those columns never need to touch the
+         * weather table itself.
+         */
+        public static final String INDEX_DATE_COVERING = "weather_date_covering";
+
         /**
-         * Returns just the selection part of the weather query from a normalized today value.
-         * This is used to get a weather forecast from today's date. To make this easy to use
-         * in compound selection, we embed today's date as an argument in the query.
+         * Returns just the selection part of the weather query for today onwards. Today's date
+         * isn't part of the selection, it must be passed as the selection's argument, see
+         * {@link #getSelectionArgsForTodayOnwards()}. That way the SQL of the query is the same
+         * every day, so SQLite can reuse the statement it compiled for it.
          *
          * @return The selection part of the weather query for today onwards
          */
         public static String getSqlSelectForTodayOnwards() {
+            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
+        }
+
+        /**
+         * Returns the arguments for {@link #getSqlSelectForTodayOnwards()}, which is just
+         * today's normalized date.
+         *
+         * @return The selection arguments of the weather query for today onwards
+         */
+        public static String[] getSelectionArgsForTodayOnwards() {
             long normalizedUtcNow = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
-            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
+            return new String[]{Long.toString(normalizedUtcNow)};
         }
     }
 }
\ No newline at end of file
@@ -15,17 +15,26 @@
  */
 package com.example.android.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.R;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = WeatherDbHelper.class.getSimpleName();
+
     /*
      * This is the name of our database. Database names should be descriptive and end with the
      * .db extension.
@@ -42,11 +51,78 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * versions of Sunshine could cause everything to break. Although that is certainly a rare
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
+     *
+     * Every version, and how onUpgrade gets from it to the next one:
+     *
+     *   1) The original Sunshine schema. Forecasts were stored per location, with a row in a
+     *      separate location table, and dated by "yyyyMMdd" text. Migrated by turning the dates
+     *      into milliseconds, see migrateTextDates.
+     *   2) Like version 1, but dated in milliseconds since the epoch at local midnight. Migrated
+     *      by copying the most recent location's forecast into the current weather table, see
+     *      migrateToSingleLocation.
+     *   3) The current weather table, which holds a single forecast dated at UTC midnight.
+     *   4) Added the covering index on the date column, see createDateCoveringIndex.
+     */
+    private static final int DATABASE_VERSION = 4;
+
+    /* The table that held the locations forecasts were stored for, up to version 2 */
+    private static final String LEGACY_LOCATION_TABLE = "location";
+
+    /* The column of the version 1 and 2 weather tables that referenced the location table */
+    private static final String LEGACY_COLUMN_LOCATION_ID = "location_id";
+
+    /* The version 2 weather table is renamed to this while it is copied into the current one */
+    private static final String LEGACY_WEATHER_TABLE = "weather_legacy";
+
+    /*
+     * The number of pages SQLite may cache per connection. A year of forecasts, along with the
+     * covering index, fits in well under a hundred 4KB pages, so this still holds everything we
+     * ever read, without the couple of megabytes SQLite's default cache could grow to.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int CACHE_SIZE_PAGES = 256;
 
+    /* The helper shared by WeatherProvider and everything else in Sunshine's process */
+    private static WeatherDbHelper sInstance;
+
+    private final boolean mWriteAheadLogging;
+
+    /**
+     * Creates a helper that uses write-ahead logging if R.bool.use_write_ahead_logging says so.
+     *
+     * @param context Used to open the database and to read the configuration
+     */
     public WeatherDbHelper(Context context) {
+        this(context, context.getResources().getBoolean(R.bool.use_write_ahead_logging));
+    }
+
+    /**
+     * @param context           Used to open the database
+     * @param writeAheadLogging Whether the database should use write-ahead logging, rather than
+     *                          the rollback journal
+     */
+    WeatherDbHelper(Context context, boolean writeAheadLogging) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabledCompat(mWriteAheadLogging);
+        }
+    }
+
+    /**
+     * Returns the WeatherDbHelper that the whole app shares. Two helpers writing to the same
+     * database can lock each other out, so anything in Sunshine that needs the database outside
+     * of WeatherProvider should use this rather than creating its own.
+     *
+     * @param context Any context, only its application context is kept
+     * @return The shared WeatherDbHelper
+     */
+    public static synchronized WeatherDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
     }
 
     /**
@@ -57,6 +133,70 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createWeatherTable(sqLiteDatabase);
+        createDateCoveringIndex(sqLiteDatabase);
+    }
+
+    /**
+     * Configures every new connection to the database. With the rollback journal, a sync that
+     * is writing the forecast keeps the forecast list from reading it until the sync commits.
+     * With write-ahead logging, readers keep reading the last committed forecast while the sync
+     * writes, so we use it wherever it's available.
+     * <p>
+     * Because a commit in write-ahead logging mode can't corrupt the database, only lose the
+     * most recent transactions on a power failure, we also let SQLite sync to disk less often.
+     * The forecast is only a cache, and the next sync would download it again anyway. From Jelly
+     * Bean on, these settings only reach the primary connection, which every write goes through.
+     *
+     * @param db The database that was opened
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        if (db.isReadOnly()) {
+            return;
+        }
+
+        /*
+         * From Jelly Bean on, the constructor has already asked for write-ahead logging, which
+         * also gives each reader its own connection. Before that, we have to switch it on here.
+         */
+        if (mWriteAheadLogging && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLoggingCompat(db);
+        }
+
+        if (mWriteAheadLogging) {
+            db.execSQL("PRAGMA synchronous = NORMAL");
+        }
+        db.execSQL("PRAGMA cache_size = " + CACHE_SIZE_PAGES);
+    }
+
+    /**
+     * @return Whether this helper opens the database with write-ahead logging
+     */
+    public boolean isWriteAheadLoggingEnabled() {
+        return mWriteAheadLogging;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setWriteAheadLoggingEnabledCompat(boolean enabled) {
+        setWriteAheadLoggingEnabled(enabled);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLoggingCompat(SQLiteDatabase db) {
+        if (!db.enableWriteAheadLogging()) {
+            Log.w(TAG, "Write-ahead logging couldn't be enabled");
+        }
+    }
+
+    /**
+     * Creates the weather table as it has been since version 3, without any of its indices.
+     *
+     * @param sqLiteDatabase The database to create the table in
+     */
+    private static void createWeatherTable(SQLiteDatabase sqLiteDatabase) {
 
         /*
          * This String will contain a simple SQL statement that will create a table that will
@@ -102,12 +242,44 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Creates an index on the date column that also holds every column the forecast list
+     * (MainActivity.MAIN_FORECAST_PROJECTION) and the detail screen
+     * (DetailActivity.WEATHER_DETAIL_PROJECTION) read. Both query by date, so with this index
+     * SQLite can find the rows and read their values without ever looking at the table.
+     * <p>
+     * The date comes first, so that range queries from today onwards can walk the index in
+     * order. The remaining columns are ordered by how many of the two projections use them.
+     *
+     * @param sqLiteDatabase The database to create the index in
+     */
+    private static void createDateCoveringIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + WeatherEntry.INDEX_DATE_COVERING
+                + " ON " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherEntry.COLUMN_DEGREES + ")");
+    }
+
+    /**
+     * Brings the schema of an existing database up to date, one version at a time, keeping the
+     * cached forecast so the user still sees it on the first launch after an update. Note that
+     * this only fires if you change the version number for your database (in our case,
+     * DATABASE_VERSION). It does NOT depend on the version number for your application found in
+     * your app/build.gradle file.
+     * <p>
+     * Each case of the switch below migrates a database from that version to the next one. When
+     * you change the schema, increment DATABASE_VERSION and add a case for the version you're
+     * migrating from, rather than changing any of the existing cases: a database can be upgraded
+     * from any version it was ever created with.
+     * <p>
+     * A version we don't know how to migrate, or a migration that fails, falls back to what
+     * Sunshine always did. As this database is only a cache for online data, we then simply
+     * discard the data and call through to onCreate to recreate the table.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +287,115 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        try {
+            for (int version = oldVersion; version < newVersion; version++) {
+                switch (version) {
+                    case 1:
+                        migrateTextDates(sqLiteDatabase);
+                        break;
+
+                    case 2:
+                        migrateToSingleLocation(sqLiteDatabase);
+                        break;
+
+                    case 3:
+                        createDateCoveringIndex(sqLiteDatabase);
+                        break;
+
+                    default:
+                        Log.w(TAG, "Don't know how to upgrade from version " + version
+                                + ", recreating the database");
+                        recreateDatabase(sqLiteDatabase);
+                        return;
+                }
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Upgrading from version " + oldVersion + " to " + newVersion
+                    + " failed, recreating the database", e);
+            recreateDatabase(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Migrates version 1 to version 2 by turning each "yyyyMMdd" date into the milliseconds since
+     * the epoch at midnight UTC of that day. Rows whose date can't be parsed are dropped.
+     * <p>
+     * The date column keeps the TEXT type it was declared with until migrateToSingleLocation
+     * rebuilds the table, which is why that migration reads it with a CAST.
+     *
+     * @param sqLiteDatabase The version 1 database
+     */
+    private static void migrateTextDates(SQLiteDatabase sqLiteDatabase) {
+        String dateInSeconds = "strftime('%s', "
+                + "substr(" + WeatherEntry.COLUMN_DATE + ", 1, 4) || '-' || "
+                + "substr(" + WeatherEntry.COLUMN_DATE + ", 5, 2) || '-' || "
+                + "substr(" + WeatherEntry.COLUMN_DATE + ", 7, 2))";
+
+        sqLiteDatabase.execSQL("DELETE FROM " + WeatherEntry.TABLE_NAME
+                + " WHERE " + dateInSeconds + " IS NULL");
+        sqLiteDatabase.execSQL("UPDATE " + WeatherEntry.TABLE_NAME
+                + " SET " + WeatherEntry.COLUMN_DATE
+                + " = CAST(" + dateInSeconds + " AS INTEGER) * 1000");
+    }
+
+    /**
+     * Migrates version 2 to version 3. Sunshine only shows the forecast for a single location
+     * now, so we keep the forecast of the location that was downloaded most recently, which is
+     * the one the user was looking at, and drop everything else along with the location table.
+     * <p>
+     * Version 2 dated each day at local midnight, the current table dates it at UTC midnight.
+     * Outside of a few Pacific time zones, local midnight is less than half a day away from UTC
+     * midnight of the same day, so rounding to the nearest UTC midnight keeps each row on the day
+     * it was forecast for.
+     *
+     * @param sqLiteDatabase The version 2 database
+     */
+    private static void migrateToSingleLocation(SQLiteDatabase sqLiteDatabase) {
+        long dayInMillis = TimeUnit.DAYS.toMillis(1);
+        String normalizedDate = "((CAST(" + WeatherEntry.COLUMN_DATE + " AS INTEGER) + "
+                + (dayInMillis / 2) + ") / " + dayInMillis + ") * " + dayInMillis;
+
+        sqLiteDatabase.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME
+                + " RENAME TO " + LEGACY_WEATHER_TABLE);
+        createWeatherTable(sqLiteDatabase);
+
+        sqLiteDatabase.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherEntry.COLUMN_DEGREES + ")"
+                + " SELECT " + normalizedDate + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherEntry.COLUMN_DEGREES
+                + " FROM " + LEGACY_WEATHER_TABLE
+                + " WHERE " + LEGACY_COLUMN_LOCATION_ID + " = ("
+                + "SELECT " + LEGACY_COLUMN_LOCATION_ID + " FROM " + LEGACY_WEATHER_TABLE
+                + " ORDER BY CAST(" + WeatherEntry.COLUMN_DATE + " AS INTEGER) DESC LIMIT 1)"
+                + " ORDER BY " + WeatherEntry.COLUMN_DATE);
+
+        sqLiteDatabase.execSQL("DROP TABLE " + LEGACY_WEATHER_TABLE);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LEGACY_LOCATION_TABLE);
+    }
+
+    /**
+     * Discards every table this or any earlier version of Sunshine created and creates the
+     * current schema from scratch.
+     *
+     * @param sqLiteDatabase The database to recreate
+     */
+    private void recreateDatabase(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LEGACY_WEATHER_TABLE);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LEGACY_LOCATION_TABLE);
         onCreate(sqLiteDatabase);
     }
-}
\ No newline at end of file
+}
@@ -18,14 +18,23 @@ package com.example.android.sunshine.data;
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
  * bulkInsert data, query data, and delete data.
@@ -38,6 +47,8 @@ import com.example.android.sunshine.utilities.SunshineDateUtils;
  */
 public class WeatherProvider extends ContentProvider {
 
+    private static final String TAG = WeatherProvider.class.getSimpleName();
+
     /*
      * These constant will be used to match URIs with the data they are looking for. We will take
      * advantage of the UriMatcher class to make that matching MUCH easier than doing something
@@ -45,6 +56,7 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_SYNC = 102;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -52,6 +64,37 @@ public class WeatherProvider extends ContentProvider {
      * common convention in Android programming.
      */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    /* Every column of a row of weather, in the order they are bound to SQL_INSERT_FORECAST */
+    private static final String[] INSERT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private static final String SQL_INSERT_FORECAST =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " (" + TextUtils.join(", ", INSERT_COLUMNS) + ")"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /* The number of columns of a row of weather other than its date */
+    private static final int WEATHER_COLUMN_COUNT = INSERT_COLUMNS.length - 1;
+
+    /* Updates every column of a day other than its date, which is bound last */
+    private static final String SQL_UPDATE_FORECAST_DAY =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET "
+                    + TextUtils.join(" = ?, ", Arrays.copyOfRange(INSERT_COLUMNS, 1,
+                            INSERT_COLUMNS.length)) + " = ?"
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static final String SQL_DELETE_FORECAST_DAY =
+            "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
     private WeatherDbHelper mOpenHelper;
 
     /**
@@ -96,6 +139,11 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* This URI is content://com.example.android.sunshine/weather/sync */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_SYNC,
+                CODE_WEATHER_SYNC);
+
         return matcher;
     }
 
@@ -119,9 +167,11 @@ public class WeatherProvider extends ContentProvider {
         /*
          * As noted in the comment above, onCreate is run on the main thread, so performing any
          * lengthy operations will cause lag in your app. Since WeatherDbHelper's constructor is
-         * very lightweight, we are safe to perform that initialization here.
+         * very lightweight, we are safe to perform that initialization here. We share the
+         * helper with applyForecastBatch, so that there is only ever one connection writing to
+         * the database.
          */
-        mOpenHelper = new WeatherDbHelper(getContext());
+        mOpenHelper = WeatherDbHelper.getInstance(getContext());
         return true;
     }
 
@@ -146,20 +196,9 @@ public class WeatherProvider extends ContentProvider {
 
             case CODE_WEATHER:
                 db.beginTransaction();
-                int rowsInserted = 0;
+                int rowsInserted;
                 try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
+                    rowsInserted = insertForecast(db, values);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
@@ -171,11 +210,273 @@ public class WeatherProvider extends ContentProvider {
 
                 return rowsInserted;
 
+            case CODE_WEATHER_SYNC:
+                ForecastBatch forecast = ForecastBatch.fromContentValues(values);
+                if (forecast == null) {
+                    throw new IllegalArgumentException(
+                            "Every day of a synced forecast must have a value for every column");
+                }
+
+                int rowsTouched = syncForecast(db, forecast);
+
+                /*
+                 * Observers are registered on the weather URI rather than the sync URI, so that's
+                 * the one we notify, once for the whole sync.
+                 */
+                if (rowsTouched > 0) {
+                    getContext().getContentResolver()
+                            .notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+                }
+
+                return rowsTouched;
+
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Syncs a forecast into the weather table exactly like a bulkInsert at
+     * {@link WeatherContract.WeatherEntry#SYNC_URI} would, but straight from a
+     * {@link ForecastBatch} instead of ContentValues. This talks to the database directly, so it
+     * can only be used from within Sunshine's own process.
+     *
+     * @param context  Used to get the database and to notify observers of the change
+     * @param forecast The complete forecast
+     * @return The number of rows that were inserted, updated or deleted
+     */
+    public static int applyForecastBatch(Context context, ForecastBatch forecast) {
+        SQLiteDatabase db = WeatherDbHelper.getInstance(context).getWritableDatabase();
+        int rowsTouched = syncForecast(db, forecast);
+
+        if (rowsTouched > 0) {
+            context.getContentResolver()
+                    .notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+
+        return rowsTouched;
+    }
+
+    /**
+     * Inserts a forecast into the weather table. Forecasts that have a value for every column of
+     * the table, and nothing else, are converted to a {@link ForecastBatch} and inserted by
+     * {@link #insertForecast(SQLiteDatabase, ForecastBatch)}. Anything else is inserted one
+     * ContentValues at a time, just like it always was.
+     * <p>
+     * This must be called within a transaction.
+     *
+     * @param db     The database to insert into
+     * @param values One set of values per day
+     * @return The number of rows that were inserted
+     */
+    static int insertForecast(SQLiteDatabase db, ContentValues[] values) {
+        ForecastBatch forecast = ForecastBatch.fromContentValues(values);
+        if (forecast == null) {
+            return insertForecastOneByOne(db, values);
+        }
+        return insertForecast(db, forecast);
+    }
+
+    /**
+     * Inserts a forecast into the weather table using a single compiled INSERT statement whose
+     * arguments are bound straight from the forecast's primitive arrays. That saves compiling the
+     * INSERT for every row and boxing every value, as {@link SQLiteDatabase#insert} does.
+     * <p>
+     * This must be called within a transaction.
+     *
+     * @param db       The database to insert into
+     * @param forecast The days to insert
+     * @return The number of rows that were inserted
+     */
+    static int insertForecast(SQLiteDatabase db, ForecastBatch forecast) {
+        checkDatesNormalized(forecast);
+
+        int rowsInserted = 0;
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_FORECAST);
+        try {
+            for (int day = 0; day < forecast.size(); day++) {
+                if (executeInsert(insert, forecast, day)) {
+                    rowsInserted++;
+                }
+            }
+        } finally {
+            insert.close();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Inserts a forecast one ContentValues at a time. This is how every forecast used to be
+     * inserted, and it is still used for values that {@link #insertForecast} can't bind itself.
+     * <p>
+     * This must be called within a transaction.
+     *
+     * @param db     The database to insert into
+     * @param values One set of values per day
+     * @return The number of rows that were inserted
+     */
+    static int insertForecastOneByOne(SQLiteDatabase db, ContentValues[] values) {
+        int rowsInserted = 0;
+        for (ContentValues value : values) {
+            long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+
+            long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+            if (_id != -1) {
+                rowsInserted++;
+            }
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Makes the weather table hold exactly the given forecast, touching as few rows as possible.
+     * Days that aren't in the table yet are inserted, days whose weather changed are updated and
+     * days that the forecast doesn't cover anymore (which are mostly days that have passed) are
+     * deleted. Days that didn't change aren't written at all. Everything happens in a single
+     * transaction, so readers never see a half synced forecast.
+     *
+     * @param db       The database to write to
+     * @param forecast The complete forecast
+     * @return The number of rows that were inserted, updated or deleted
+     */
+    private static int syncForecast(SQLiteDatabase db, ForecastBatch forecast) {
+        checkDatesNormalized(forecast);
+
+        int rowsInserted = 0;
+        int rowsUpdated = 0;
+        int rowsDeleted = 0;
+
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_FORECAST);
+        SQLiteStatement update = db.compileStatement(SQL_UPDATE_FORECAST_DAY);
+        SQLiteStatement delete = db.compileStatement(SQL_DELETE_FORECAST_DAY);
+        try {
+            /*
+             * The table only ever holds a couple of weeks worth of days, so we read all of it
+             * and remember where in the cursor each day is.
+             */
+            Cursor existingDays = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    INSERT_COLUMNS, null, null, null, null, null);
+            try {
+                Map<Long, Integer> positionsByDate = new HashMap<>(existingDays.getCount());
+                while (existingDays.moveToNext()) {
+                    positionsByDate.put(existingDays.getLong(0), existingDays.getPosition());
+                }
+
+                for (int day = 0; day < forecast.size(); day++) {
+                    Integer position = positionsByDate.remove(forecast.getDate(day));
+                    if (position == null) {
+                        if (executeInsert(insert, forecast, day)) {
+                            rowsInserted++;
+                        }
+                    } else if (existingDays.moveToPosition(position)
+                            && !isSameWeather(existingDays, forecast, day)) {
+                        /*
+                         * We know the row exists, as we've just read it in this transaction. That
+                         * spares us executeUpdateDelete, which isn't available before Honeycomb.
+                         */
+                        bindWeather(update, 1, forecast, day);
+                        update.bindLong(WEATHER_COLUMN_COUNT + 1, forecast.getDate(day));
+                        update.execute();
+                        rowsUpdated++;
+                    }
+                }
+
+                /* Whatever is left wasn't part of the new forecast */
+                for (Long staleDate : positionsByDate.keySet()) {
+                    delete.bindLong(1, staleDate);
+                    delete.execute();
+                    rowsDeleted++;
+                }
+            } finally {
+                existingDays.close();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            update.close();
+            delete.close();
+            db.endTransaction();
+        }
+
+        Log.d(TAG, "Forecast synced: " + rowsInserted + " inserted, " + rowsUpdated
+                + " updated, " + rowsDeleted + " deleted");
+
+        return rowsInserted + rowsUpdated + rowsDeleted;
+    }
+
+    /**
+     * Checks every date of a forecast before anything is written, the same way each row used to
+     * be checked as it was inserted.
+     */
+    private static void checkDatesNormalized(ForecastBatch forecast) {
+        for (int day = 0; day < forecast.size(); day++) {
+            if (!SunshineDateUtils.isDateNormalized(forecast.getDate(day))) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+        }
+    }
+
+    /**
+     * Inserts one day of a forecast with a statement compiled from {@link #SQL_INSERT_FORECAST}.
+     * A failing row is logged and skipped, just like SQLiteDatabase#insert would skip it.
+     *
+     * @return true if the row was inserted
+     */
+    private static boolean executeInsert(SQLiteStatement insert, ForecastBatch forecast, int day) {
+        insert.bindLong(1, forecast.getDate(day));
+        bindWeather(insert, 2, forecast, day);
+        try {
+            return insert.executeInsert() != -1;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error inserting forecast for " + forecast.getDate(day), e);
+            return false;
+        }
+    }
+
+    /**
+     * Binds every value of a day other than its date, in the order of {@link #INSERT_COLUMNS}.
+     *
+     * @param statement  The statement to bind the values to
+     * @param firstIndex The index of the weather ID's argument, starting at 1
+     * @param forecast   The forecast the day is in
+     * @param day        The index of the day in the forecast
+     */
+    private static void bindWeather(SQLiteStatement statement, int firstIndex,
+                                    ForecastBatch forecast, int day) {
+        statement.bindLong(firstIndex, forecast.getWeatherId(day));
+        statement.bindDouble(firstIndex + 1, forecast.getMinTemp(day));
+        statement.bindDouble(firstIndex + 2, forecast.getMaxTemp(day));
+        statement.bindDouble(firstIndex + 3, forecast.getHumidity(day));
+        statement.bindDouble(firstIndex + 4, forecast.getPressure(day));
+        statement.bindDouble(firstIndex + 5, forecast.getWindSpeed(day));
+        statement.bindDouble(firstIndex + 6, forecast.getDegrees(day));
+    }
+
+    /**
+     * Compares a row of the weather table with the same day of a forecast.
+     *
+     * @param existingDay A cursor over {@link #INSERT_COLUMNS}, positioned on the row currently
+     *                    in the table
+     * @param forecast    The forecast that would replace it
+     * @param day         The index of the day in the forecast
+     * @return true if writing the day wouldn't change the row
+     */
+    private static boolean isSameWeather(Cursor existingDay, ForecastBatch forecast, int day) {
+        return existingDay.getLong(1) == forecast.getWeatherId(day)
+                && Double.compare(existingDay.getDouble(2), forecast.getMinTemp(day)) == 0
+                && Double.compare(existingDay.getDouble(3), forecast.getMaxTemp(day)) == 0
+                && Double.compare(existingDay.getDouble(4), forecast.getHumidity(day)) == 0
+                && Double.compare(existingDay.getDouble(5), forecast.getPressure(day)) == 0
+                && Double.compare(existingDay.getDouble(6), forecast.getWindSpeed(day)) == 0
+                && Double.compare(existingDay.getDouble(7), forecast.getDegrees(day)) == 0;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -16,17 +16,48 @@
 package com.example.android.sunshine.sync;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
 
+import com.example.android.sunshine.utilities.SyncMetrics;
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.JobService;
 import com.firebase.jobdispatcher.RetryStrategy;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private static final String TAG = SunshineFirebaseJobService.class.getSimpleName();
+
+    /*
+     * Syncs run one at a time anyway, see SyncCoordinator. A couple of jobs may wait for their
+     * turn, there is no point in queueing more than that.
+     */
+    private static final int SYNC_QUEUE_CAPACITY = 2;
+
+    private static final long SYNC_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sSyncExecutor = createSyncExecutor();
+
+    /* The jobs that are running, by their tag. Only touched on the main thread */
+    private final Map<String, RunningJob> mRunningJobs = new HashMap<>();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -40,23 +71,32 @@ public class SunshineFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
+        final RunningJob job = new RunningJob(jobParameters);
+        final Context context = getApplicationContext();
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
-            @Override
-            protected Void doInBackground(Void... voids) {
-                Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
-            }
+        try {
+            sSyncExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int result = SyncCoordinator.sync(context, job.mCancellationSignal);
+                    finishJob(job, result == SunshineSyncTask.SYNC_RESULT_RETRY);
 
-            @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
-            }
-        };
+                    /*
+                     * Pick the interval to the next sync based on what this one found. A sync
+                     * that failed is left to the job's retry strategy instead.
+                     */
+                    if (result == SunshineSyncTask.SYNC_RESULT_SUCCESS) {
+                        SunshineSyncUtils.scheduleFirebaseJobDispatcherSync(context);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            /* The syncs that are already waiting will bring the forecast up to date */
+            Log.w(TAG, "Too many syncs waiting, skipping " + jobParameters.getTag());
+            return false;
+        }
 
-        mFetchWeatherTask.execute();
+        mRunningJobs.put(jobParameters.getTag(), job);
         return true;
     }
 
@@ -70,9 +110,83 @@ public class SunshineFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        if (mFetchWeatherTask != null) {
-            mFetchWeatherTask.cancel(true);
+        RunningJob job = mRunningJobs.remove(jobParameters.getTag());
+        if (job == null || !job.mFinished.compareAndSet(false, true)) {
+            /* The sync finished just now and has reported that already */
+            return false;
         }
+
+        /*
+         * The dispatcher considers the job stopped once we return, so the sync must not report
+         * it finished on top of that. It stops at its next checkpoint, without storing anything
+         * it fetched, so the job needs to run again.
+         */
+        job.mCancellationSignal.cancel();
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Prints Sunshine's sync metrics for "adb shell dumpsys activity service" while a sync job
+     * is running.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        SyncMetrics.dump(writer);
+    }
+
+    /**
+     * Reports a job finished, unless onStopJob already stopped it.
+     */
+    private void finishJob(final RunningJob job, boolean needsReschedule) {
+        if (!job.mFinished.compareAndSet(false, true)) {
+            return;
+        }
+
+        jobFinished(job.mParameters, needsReschedule);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRunningJobs.get(job.mParameters.getTag()) == job) {
+                    mRunningJobs.remove(job.mParameters.getTag());
+                }
+            }
+        });
+    }
+
+    private static ThreadPoolExecutor createSyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                SYNC_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(SYNC_QUEUE_CAPACITY),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "SunshineSync");
+                    }
+                });
+        /* Don't keep a thread around between syncs, they are hours apart */
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * A job that has been started, and what it takes to stop it.
+     */
+    private static final class RunningJob {
+
+        final JobParameters mParameters;
+        final CancellationSignal mCancellationSignal = new CancellationSignal();
+
+        /* Set by whoever reports the job's end first, onStopJob or the sync */
+        final AtomicBoolean mFinished = new AtomicBoolean();
+
+        RunningJob(JobParameters parameters) {
+            mParameters = parameters;
+        }
+    }
+}
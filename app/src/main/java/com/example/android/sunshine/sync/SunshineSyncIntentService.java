@@ -17,6 +17,7 @@ package com.example.android.sunshine.sync;
 
 import android.app.IntentService;
 import android.content.Intent;
+import android.support.v4.os.CancellationSignal;
 
 /**
  * An {@link IntentService} subclass for handling asynchronous task requests in
@@ -30,6 +31,12 @@ public class SunshineSyncIntentService extends IntentService {
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        SunshineSyncTask.syncWeather(this);
+        /* If the periodic job is syncing right now, this joins it instead of fetching again */
+        int result = SyncCoordinator.sync(this, new CancellationSignal());
+
+        /* The periodic sync can wait a while longer, now that the forecast is fresh */
+        if (result == SunshineSyncTask.SYNC_RESULT_SUCCESS) {
+            SunshineSyncUtils.scheduleFirebaseJobDispatcherSync(this);
+        }
     }
 }
\ No newline at end of file
@@ -15,40 +15,35 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
-import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
 import android.text.format.DateUtils;
+import android.util.Log;
 
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
-import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherProvider;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SyncMetrics;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
     private static GoogleApiClient mGoogleApiClient;
 
     static GoogleApiClient getGoogleApiClient(Context context) {
@@ -81,6 +76,21 @@ public class SunshineSyncTask {
 
     }
 
+    /* The sync stored a new forecast, or the server confirmed that ours is still current */
+    static final int SYNC_RESULT_SUCCESS = 0;
+
+    /* The sync failed in a way that may well go away on its own, like a network error */
+    static final int SYNC_RESULT_RETRY = 1;
+
+    /* The sync failed in a way that trying again won't fix, like a response we can't parse */
+    static final int SYNC_RESULT_FAILED = 2;
+
+    /* The sync was cancelled before it could store a new forecast */
+    static final int SYNC_RESULT_CANCELLED = 3;
+
+    /* How each of the SYNC_RESULT constants is recorded in SyncMetrics */
+    private static final String[] SYNC_RESULT_NAMES = {"success", "retry", "failed", "cancelled"};
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
@@ -89,8 +99,43 @@ public class SunshineSyncTask {
      *
      * @param context Used to access utility methods and the ContentResolver
      */
-    synchronized public static void syncWeather(Context context) {
+    public static void syncWeather(final Context context) {
+        syncWeather(context, new CancellationSignal());
+    }
 
+    /**
+     * Like {@link #syncWeather(Context)}, but stops early once the given signal is cancelled.
+     * The signal is checked before the forecast is fetched, before it is parsed and before it is
+     * stored. Once the new forecast has been stored, the sync is finished regardless. Its
+     * validators have been saved by then, so if we skipped sending it to the wear device, the
+     * next sync would find nothing new to send.
+     *
+     * @param context            Used to access utility methods and the ContentResolver
+     * @param cancellationSignal Cancelled when the sync should stop as soon as it can
+     * @return One of the SYNC_RESULT constants
+     */
+    synchronized static int syncWeather(final Context context,
+                                        final CancellationSignal cancellationSignal) {
+        long syncStart = System.nanoTime();
+        int result = syncWeather(context, cancellationSignal, new int[1]);
+        SyncMetrics.recordStage(SyncMetrics.STAGE_TOTAL, syncStart);
+        SyncMetrics.recordOutcome(SYNC_RESULT_NAMES[result]);
+        Log.d(TAG, "Forecast sync finished: " + SYNC_RESULT_NAMES[result]);
+        return result;
+    }
+
+    /**
+     * Does the actual sync, and keeps track of the stage it is in, so that a failure can be
+     * recorded against it.
+     *
+     * @param stage Holds the SyncMetrics STAGE constant of the stage the sync is in
+     */
+    private static int syncWeather(final Context context,
+                                   final CancellationSignal cancellationSignal,
+                                   final int[] stage) {
+        if (cancellationSignal.isCanceled()) {
+            return SYNC_RESULT_CANCELLED;
+        }
 
         try {
             /*
@@ -98,46 +143,89 @@ public class SunshineSyncTask {
              * weather. It will decide whether to create a URL based off of the latitude and
              * longitude or off of a simple location as a String.
              */
+            stage[0] = SyncMetrics.STAGE_URL_BUILD;
+            long stageStart = System.nanoTime();
             URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            SyncMetrics.recordStage(SyncMetrics.STAGE_URL_BUILD, stageStart);
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
-
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            /*
+             * Use the URL to retrieve the JSON and parse it into a list of weather values. The
+             * JSON is parsed straight off the network as it is downloaded. If the forecast hasn't
+             * changed since our last sync, the server won't send it again and we get null back.
+             * NetworkUtils records the time spent on each stage of the request itself.
+             */
+            stage[0] = SyncMetrics.STAGE_CONNECT;
+            final boolean[] responseRead = new boolean[1];
+            ForecastBatch forecast = NetworkUtils.readResponseFromHttpUrl(
+                    context,
+                    weatherRequestUrl,
+                    new NetworkUtils.ResponseHandler<ForecastBatch>() {
+                        @Override
+                        public ForecastBatch onResponse(InputStream responseStream,
+                                                        int contentLength) throws IOException {
+                            cancellationSignal.throwIfCanceled();
+                            responseRead[0] = true;
+                            stage[0] = SyncMetrics.STAGE_PARSE;
+                            return OpenWeatherJsonUtils
+                                    .getForecastBatchFromStream(context, responseStream);
+                        }
+                    });
 
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * In cases where our JSON contained an error code, getForecastBatchFromStream
+             * would have returned null, as would readResponseFromHttpUrl if the forecast wasn't
+             * modified. The handler was only called in the first case. We need to check for
+             * those cases here to prevent any NullPointerExceptions being thrown. We also have
+             * no reason to insert fresh data if there isn't any to insert.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
+            if (forecast != null && forecast.size() != 0) {
+                if (cancellationSignal.isCanceled()) {
+                    /*
+                     * This forecast's validators were never committed, so the next sync will
+                     * download it again rather than be told that there is nothing new.
+                     */
+                    return SYNC_RESULT_CANCELLED;
+                }
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+                /*
+                 * Replace the forecast in Sunshine's database with the new one. Only the days
+                 * that changed are written and days we don't need anymore are deleted, all in
+                 * one go, so the forecast list is only told to reload once. This does what a
+                 * bulkInsert at WeatherEntry.SYNC_URI would, without turning every day into
+                 * ContentValues first.
+                 */
+                stage[0] = SyncMetrics.STAGE_DB_WRITE;
+                stageStart = System.nanoTime();
+                int rowsTouched = WeatherProvider.applyForecastBatch(context, forecast);
+                SyncMetrics.recordStage(SyncMetrics.STAGE_DB_WRITE, stageStart);
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+                /*
+                 * Only now that the forecast is stored may the server answer the next sync with
+                 * a 304. Had storing it thrown, the next sync would download it again.
+                 */
+                NetworkUtils.commitValidators(context);
+                SyncMetrics.recordStored(forecast.size(), rowsTouched);
 
+                /* Storing the forecast didn't touch a single row if it hasn't changed */
+                SunshineSyncUtils.recordSync(context, rowsTouched > 0,
+                        SyncSchedulePolicy.isVolatile(forecast,
+                                SunshineDateUtils.getNormalizedUtcDateForToday()));
 
                 /*
-                 * Now we send our Data to our Wear Device
+                 * Now we send our Data to our Wear Device, unless it already has it. Pushes that
+                 * aren't urgent are held back for a moment, in case another sync follows.
                  */
-                sendDataToWear(weatherValues, getGoogleApiClient(context), context.getResources());
+                stage[0] = SyncMetrics.STAGE_WEAR_PUSH;
+                stageStart = System.nanoTime();
+                WearPushScheduler.schedule(context, forecast);
+                SyncMetrics.recordStage(SyncMetrics.STAGE_WEAR_PUSH, stageStart);
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
                  * we should notify the user that the weather has been refreshed.
                  */
+                stage[0] = SyncMetrics.STAGE_NOTIFICATION;
+                stageStart = System.nanoTime();
                 boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
 
                 /*
@@ -159,71 +247,40 @@ public class SunshineSyncTask {
                  * haven't shown a notification in the past day.
                  */
                 if (notificationsEnabled && oneDayPassedSinceLastNotification) {
-                    NotificationUtils.notifyUserOfNewWeather(context);
+                    NotificationUtils.notifyUserOfNewWeather(context, forecast);
                 }
+                SyncMetrics.recordStage(SyncMetrics.STAGE_NOTIFICATION, stageStart);
 
-            /* If the code reaches this point, we have successfully performed our sync */
+            } else if (!responseRead[0]) {
+                /* The server told us that the forecast we stored last time is still current */
+                SunshineSyncUtils.recordUnchangedSync(context);
 
+            } else {
+                /*
+                 * The server sent an error, like an unknown location, or a forecast without any
+                 * days. That says nothing about whether our forecast is current, so it mustn't
+                 * count as an unchanged sync, which would make us check back less often. Its
+                 * validators are never committed, those of the forecast we have still hold.
+                 */
+                Log.e(TAG, "Forecast sync failed: the response held no forecast");
+                SyncMetrics.recordFailure(stage[0], "no forecast");
+                return SYNC_RESULT_FAILED;
             }
 
+            /* If the code reaches this point, we have successfully performed our sync */
+            return SYNC_RESULT_SUCCESS;
+
+        } catch (OperationCanceledException e) {
+            return SYNC_RESULT_CANCELLED;
+        } catch (IOException e) {
+            Log.w(TAG, "Forecast sync failed", e);
+            SyncMetrics.recordFailure(stage[0], e);
+            return SYNC_RESULT_RETRY;
         } catch (Exception e) {
             /* Server probably invalid */
-            e.printStackTrace();
-        }
-    }
-
-    private static void sendDataToWear(ContentValues[] weatherValues, GoogleApiClient googleApiClient, Resources resources) {
-
-         /* Get the min temperature, max temparature, and weather conditions for today*/
-        ContentValues todayWeatherValues = weatherValues[0];
-        int minTemp = Math.round(todayWeatherValues.getAsFloat(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
-        int maxTemp = Math.round(todayWeatherValues.getAsFloat(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
-        int weatherId = todayWeatherValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
-
-
-        PutDataMapRequest putDataMapRequest;
-        PutDataRequest putDataRequest;
-        DataMap dataMap;
-        putDataMapRequest = PutDataMapRequest.create("/sunshine-weather");
-        dataMap = putDataMapRequest.getDataMap();
-        dataMap.putInt("MIN_TEMP", minTemp);
-        dataMap.putInt("MAX_TEMP", maxTemp);
-
-        Bitmap weatherIcon = drawableToBitmap(resources.getDrawable(SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId)));
-        dataMap.putAsset("WEATHER_ICON", createAssetFromBitmap(weatherIcon));
-
-        putDataRequest = putDataMapRequest.asPutDataRequest();
-        putDataMapRequest.setUrgent();
-
-        Wearable.DataApi
-                .putDataItem(googleApiClient, putDataRequest)
-                .setResultCallback(
-                        new ResultCallback<DataApi.DataItemResult>() {
-                            @Override
-                            public void onResult(@NonNull DataApi.DataItemResult result) {
-                                //STUB
-                            }
-                        });
-    }
-
-    static Asset createAssetFromBitmap(Bitmap bitmap) {
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
-    }
-
-    static Bitmap drawableToBitmap(Drawable drawable) {
-
-        if (drawable instanceof BitmapDrawable) {
-            return ((BitmapDrawable) drawable).getBitmap();
+            Log.e(TAG, "Forecast sync failed", e);
+            SyncMetrics.recordFailure(stage[0], e);
+            return SYNC_RESULT_FAILED;
         }
-
-        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-        drawable.draw(canvas);
-
-        return bitmap;
     }
-
-}
\ No newline at end of file
+}
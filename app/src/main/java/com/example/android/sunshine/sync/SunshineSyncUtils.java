@@ -17,11 +17,13 @@ package com.example.android.sunshine.sync;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.NetworkUtils;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
 import com.firebase.jobdispatcher.FirebaseJobDispatcher;
@@ -30,23 +32,43 @@ import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.Lifetime;
 import com.firebase.jobdispatcher.Trigger;
 
+import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncUtils {
 
-    private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(3);
-    private static final int SYNC_FLEXTIME_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
-
     private static boolean sInitialized;
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+    /*
+     * What SyncSchedulePolicy knows about past syncs and app opens, and the interval the sync
+     * job was last scheduled with, and when
+     */
+    private static final String SCHEDULE_PREFERENCES_NAME = "sync_schedule";
+    private static final String PREF_SCHEDULED_AT = "scheduled_at";
+    private static final String PREF_SCHEDULED_INTERVAL = "scheduled_interval";
+
+    /*
+     * Opening the app only brings the next sync forward if that makes it at least this much
+     * earlier, so that we don't reschedule the job every time the app is opened.
+     */
+    private static final long MIN_RESCHEDULE_GAIN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
     /**
-     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
+     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher, with the
+     * interval that SyncSchedulePolicy picks for now.
      *
      * @param context Context used to create the GooglePlayDriver that powers the FirebaseJobDispatcher
      */
-    static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
+    synchronized static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
+
+        SharedPreferences preferences = getSchedulePreferences(context);
+        long now = System.currentTimeMillis();
+        long intervalMillis = readSchedulePolicy(preferences).getIntervalMillis(now);
+        int intervalSeconds = (int) TimeUnit.MILLISECONDS.toSeconds(intervalMillis);
+        int flexSeconds = (int) TimeUnit.MILLISECONDS.toSeconds(
+                SyncSchedulePolicy.getFlexMillis(intervalMillis));
 
         Driver driver = new GooglePlayDriver(context);
         FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
@@ -74,14 +96,16 @@ public class SunshineSyncUtils {
                  */
                 .setRecurring(true)
                 /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
-                 * Trigger's static executionWindow method is the start of the time frame when the
-                 * sync should be performed. The second argument is the latest point in time at
-                 * which the data should be synced. Please note that this end time is not
-                 * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
+                 * We want the weather data to be synced every 3 to 4 hours, more or less often
+                 * depending on the weather and the user, see SyncSchedulePolicy. The first
+                 * argument for Trigger's static executionWindow method is the start of the time
+                 * frame when the sync should be performed. The second argument is the latest
+                 * point in time at which the data should be synced. Please note that this end
+                 * time is not guaranteed, but is more of a guideline for FirebaseJobDispatcher
+                 * to go off of.
                  */
                 .setTrigger(Trigger.executionWindow(
-                        SYNC_INTERVAL_SECONDS, SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
+                        intervalSeconds, intervalSeconds + flexSeconds))
                 /*
                  * If a Job with the tag with provided already exists, this new job will replace
                  * the old one.
@@ -92,6 +116,77 @@ public class SunshineSyncUtils {
 
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
+
+        preferences.edit()
+                .putLong(PREF_SCHEDULED_AT, now)
+                .putLong(PREF_SCHEDULED_INTERVAL, intervalMillis)
+                .apply();
+    }
+
+    /**
+     * Records the result of a sync that stored a forecast, so that the next one can be scheduled
+     * accordingly.
+     *
+     * @param context         Used to access the schedule's preferences
+     * @param changed         Whether the forecast was different from the one we had
+     * @param volatileWeather Whether today or tomorrow has stormy weather
+     */
+    synchronized static void recordSync(Context context, boolean changed,
+                                        boolean volatileWeather) {
+        SharedPreferences preferences = getSchedulePreferences(context);
+        SyncSchedulePolicy policy = readSchedulePolicy(preferences);
+        policy.recordSync(changed, volatileWeather);
+        saveSchedulePolicy(preferences, policy);
+    }
+
+    /**
+     * Records a sync that found the forecast we have to be current.
+     *
+     * @param context Used to access the schedule's preferences
+     */
+    synchronized static void recordUnchangedSync(Context context) {
+        SharedPreferences preferences = getSchedulePreferences(context);
+        SyncSchedulePolicy policy = readSchedulePolicy(preferences);
+        policy.recordUnchangedSync();
+        saveSchedulePolicy(preferences, policy);
+    }
+
+    /**
+     * Records that the user opened the app. If that means that the next sync should come
+     * noticeably sooner, for example because the app hadn't been opened in days, the sync job is
+     * scheduled again.
+     *
+     * @param context Used to access the schedule's preferences and to schedule the sync job
+     */
+    synchronized public static void recordAppOpened(@NonNull Context context) {
+        SharedPreferences preferences = getSchedulePreferences(context);
+        SyncSchedulePolicy policy = readSchedulePolicy(preferences);
+        long now = System.currentTimeMillis();
+        policy.recordAppOpened(now);
+        saveSchedulePolicy(preferences, policy);
+
+        long scheduledSync = preferences.getLong(PREF_SCHEDULED_AT, now)
+                + preferences.getLong(PREF_SCHEDULED_INTERVAL, 0);
+        if (now + policy.getIntervalMillis(now) + MIN_RESCHEDULE_GAIN_MILLIS < scheduledSync) {
+            scheduleFirebaseJobDispatcherSync(context);
+        }
+    }
+
+    private static SyncSchedulePolicy readSchedulePolicy(SharedPreferences preferences) {
+        SyncSchedulePolicy policy = new SyncSchedulePolicy(TimeZone.getDefault());
+        policy.readFrom(preferences);
+        return policy;
+    }
+
+    private static void saveSchedulePolicy(SharedPreferences preferences,
+                                           SyncSchedulePolicy policy) {
+        SharedPreferences.Editor editor = preferences.edit();
+        policy.writeTo(editor);
+        editor.apply();
+    }
+
+    private static SharedPreferences getSchedulePreferences(Context context) {
+        return context.getSharedPreferences(SCHEDULE_PREFERENCES_NAME, Context.MODE_PRIVATE);
     }
 
     /**
@@ -138,13 +233,15 @@ public class SunshineSyncUtils {
                 String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
                 String selectionStatement = WeatherContract.WeatherEntry
                         .getSqlSelectForTodayOnwards();
+                String[] selectionArguments = WeatherContract.WeatherEntry
+                        .getSelectionArgsForTodayOnwards();
 
                 /* Here, we perform the query to check to see if we have any weather data */
                 Cursor cursor = context.getContentResolver().query(
                         forecastQueryUri,
                         projectionColumns,
                         selectionStatement,
-                        null,
+                        selectionArguments,
                         null);
                 /*
                  * A Cursor object can be null for various different reasons. A few are
@@ -161,6 +258,13 @@ public class SunshineSyncUtils {
                  * be able to display data to the user.
                  */
                 if (null == cursor || cursor.getCount() == 0) {
+                    /*
+                     * Whatever forecast we last downloaded is gone, so we must not let the
+                     * server tell us that it hasn't changed since, nor skip the sync because
+                     * the last one was only a few minutes ago.
+                     */
+                    NetworkUtils.clearCachedValidators(context);
+                    SyncCoordinator.resetFreshness();
                     startImmediateSync(context);
                 }
 
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.v4.os.CancellationSignal;
+
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.SyncMetrics;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes sure that syncs that are asked for at about the same time, like the periodic job, an
+ * immediate sync and a change of location, don't each fetch the forecast one after the other.
+ * <p>
+ * 1) A sync that is asked for while another one is running for the same forecast URL joins it,
+ * waits for it to finish and gets its result.
+ * 2) A sync that is asked for within {@link #FRESHNESS_WINDOW_MILLIS} of a successful sync of the
+ * same forecast URL isn't run at all. The forecast we have is as fresh as it gets. A sync only
+ * succeeds if it stored a forecast or the server confirmed that ours is current, so a sync
+ * that got an error from the server never keeps the next one from running.
+ * <p>
+ * Syncs of different URLs, for example before and after the location was changed, never stand
+ * in for each other. They still run one after the other, as syncWeather is synchronized.
+ * <p>
+ * Syncs that were joined or found fresh are counted in SyncMetrics, as the outcomes "joined"
+ * and "fresh". Syncs that ran are counted by their own outcome.
+ */
+final class SyncCoordinator {
+
+    static final long FRESHNESS_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /* How often a sync that joined another one checks whether it was cancelled itself */
+    private static final long JOIN_POLL_MILLIS = 500;
+
+    private static final Object sLock = new Object();
+
+    /* Guarded by sLock */
+    private static Flight sCurrentFlight;
+    private static String sLastSuccessfulUrl;
+    private static long sLastSuccessElapsedMillis;
+
+    /**
+     * Runs one sync for {@link #sync(String, Syncer, CancellationSignal)}. Outside of tests,
+     * that is always SunshineSyncTask.syncWeather.
+     */
+    interface Syncer {
+
+        /**
+         * @param cancellationSignal The signal of the caller the sync is run for
+         * @return One of the SunshineSyncTask SYNC_RESULT constants
+         */
+        int sync(CancellationSignal cancellationSignal);
+    }
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * Syncs the forecast, unless a sync of the same forecast is running or has just finished,
+     * as described above.
+     *
+     * @param context            Used to find the forecast's URL, and to sync it
+     * @param cancellationSignal Cancelled when the caller no longer needs the sync. A sync that
+     *                           others have joined is only stopped by its own caller's signal
+     * @return One of the SunshineSyncTask SYNC_RESULT constants
+     */
+    static int sync(final Context context, CancellationSignal cancellationSignal) {
+        return sync(getForecastUrl(context), new Syncer() {
+            @Override
+            public int sync(CancellationSignal cancellationSignal) {
+                return SunshineSyncTask.syncWeather(context, cancellationSignal);
+            }
+        }, cancellationSignal);
+    }
+
+    /**
+     * Runs the given sync of the given forecast URL, unless a sync of the same URL is running or
+     * has just finished.
+     *
+     * @param url                The URL of the forecast the sync fetches
+     * @param syncer             Runs the sync, if it has to run
+     * @param cancellationSignal Cancelled when the caller no longer needs the sync
+     * @return One of the SunshineSyncTask SYNC_RESULT constants
+     */
+    static int sync(String url, Syncer syncer, CancellationSignal cancellationSignal) {
+        while (true) {
+            Flight flight;
+            boolean leader = false;
+            synchronized (sLock) {
+                if (url != null && url.equals(sLastSuccessfulUrl)
+                        && SystemClock.elapsedRealtime() - sLastSuccessElapsedMillis
+                        < FRESHNESS_WINDOW_MILLIS) {
+                    SyncMetrics.recordOutcome("fresh");
+                    return SunshineSyncTask.SYNC_RESULT_SUCCESS;
+                }
+
+                if (sCurrentFlight != null && sCurrentFlight.mUrl != null
+                        && sCurrentFlight.mUrl.equals(url)) {
+                    flight = sCurrentFlight;
+                } else if (sCurrentFlight == null) {
+                    flight = new Flight(url);
+                    sCurrentFlight = flight;
+                    leader = true;
+                } else {
+                    /* A sync of another URL is running, we'll wait for it and take the next turn */
+                    flight = sCurrentFlight;
+                }
+            }
+
+            if (leader) {
+                int result = SunshineSyncTask.SYNC_RESULT_FAILED;
+                try {
+                    result = syncer.sync(cancellationSignal);
+                } finally {
+                    land(flight, result);
+                }
+                return result;
+            }
+
+            if (!await(flight, cancellationSignal)) {
+                return SunshineSyncTask.SYNC_RESULT_CANCELLED;
+            }
+
+            /*
+             * If the sync we waited for was of our URL and wasn't cancelled by its own caller,
+             * its result is ours. Otherwise we go around again, and most likely run our own.
+             */
+            if (flight.mUrl != null && flight.mUrl.equals(url)
+                    && flight.mResult != SunshineSyncTask.SYNC_RESULT_CANCELLED) {
+                SyncMetrics.recordOutcome("joined");
+                return flight.mResult;
+            }
+        }
+    }
+
+    /**
+     * Forgets the last successful sync, so that the next one runs even if it comes right after.
+     * Call this when the forecast that sync stored or confirmed is gone.
+     */
+    static void resetFreshness() {
+        synchronized (sLock) {
+            sLastSuccessfulUrl = null;
+        }
+    }
+
+    private static void land(Flight flight, int result) {
+        synchronized (sLock) {
+            flight.mResult = result;
+            sCurrentFlight = null;
+            if (result == SunshineSyncTask.SYNC_RESULT_SUCCESS) {
+                sLastSuccessfulUrl = flight.mUrl;
+                sLastSuccessElapsedMillis = SystemClock.elapsedRealtime();
+            }
+        }
+        flight.mLanded.countDown();
+    }
+
+    /**
+     * Waits for the given sync to finish.
+     *
+     * @return False if the caller's signal was cancelled before it did
+     */
+    private static boolean await(Flight flight, CancellationSignal cancellationSignal) {
+        try {
+            while (!flight.mLanded.await(JOIN_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancellationSignal.isCanceled()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String getForecastUrl(Context context) {
+        URL url = NetworkUtils.getUrl(context);
+        return url == null ? null : url.toString();
+    }
+
+    /**
+     * A sync that is running, or has just finished, and the callers waiting for it.
+     */
+    private static final class Flight {
+
+        final String mUrl;
+        final CountDownLatch mLanded = new CountDownLatch(1);
+
+        /* Written before mLanded is counted down, and only read after it was */
+        int mResult;
+
+        Flight(String url) {
+            mUrl = url;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.data.ForecastBatch;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long to wait before the next periodic sync, based on what the last syncs found and
+ * on when the user opens the app.
+ * <p>
+ * 1) We start out syncing every {@link #BASE_INTERVAL_MILLIS}, like we always did.
+ * 2) Every sync in a row that didn't change the forecast doubles that, up to four times as long.
+ * 3) If the user hasn't opened the app in days, we sync twice a day, and once a week of that
+ * has passed, once a day.
+ * 4) While today or tomorrow has thunderstorms or extreme weather, which is when forecasts change
+ * the most, we sync every {@link #VOLATILE_INTERVAL_MILLIS} instead.
+ * 5) If the user tends to open the app at a certain hour, and the next sync would come after
+ * that, we sync early enough for the sync to be done by then.
+ * <p>
+ * The policy only calculates. It never reads the clock, its callers pass the time in, so
+ * that the simulation in the tests can run weeks of syncs in an instant.
+ */
+final class SyncSchedulePolicy {
+
+    static final long BASE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(3);
+    static final long VOLATILE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long MIN_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long MAX_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    /* Unchanged syncs double the interval this many times at most, to 12 hours */
+    private static final int MAX_UNCHANGED_DOUBLINGS = 2;
+
+    private static final long IDLE_AFTER_MILLIS = TimeUnit.DAYS.toMillis(3);
+    private static final long IDLE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(12);
+    private static final long DORMANT_AFTER_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /* How long before a typical open the window of the sync should end */
+    static final long LEAD_BEFORE_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /*
+     * An hour of the day is a typical time for the user to open the app once it holds at least
+     * this many opens, and this share of all of them.
+     */
+    private static final int TYPICAL_OPEN_MIN_COUNT = 3;
+    private static final int TYPICAL_OPEN_MIN_PERCENT = 20;
+
+    /* Once this many opens are counted, all counts are halved, so that old habits fade */
+    private static final int OPEN_COUNT_LIMIT = 64;
+
+    private static final long HOUR_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String PREF_UNCHANGED_STREAK = "unchanged_streak";
+    private static final String PREF_VOLATILE = "volatile";
+    private static final String PREF_LAST_OPEN = "last_open";
+    private static final String PREF_OPENS_BY_HOUR = "opens_by_hour";
+
+    private final TimeZone mTimeZone;
+
+    private int mUnchangedStreak;
+    private boolean mVolatile;
+
+    /* -1 until the app has been opened */
+    private long mLastOpenMillis = -1;
+    private final int[] mOpensByHour = new int[24];
+
+    /**
+     * @param timeZone The time zone the user lives in, which the hours of their opens are in
+     */
+    SyncSchedulePolicy(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+
+    /**
+     * @param changed         Whether the sync stored a forecast that was different from the one
+     *                        we had
+     * @param volatileWeather Whether the forecast we have now is volatile, see
+     *                        {@link #isVolatile(ForecastBatch, long)}
+     */
+    void recordSync(boolean changed, boolean volatileWeather) {
+        mUnchangedStreak = changed ? 0 : mUnchangedStreak + 1;
+        mVolatile = volatileWeather;
+    }
+
+    /**
+     * Records a sync that didn't get a forecast at all, because the server told us ours is still
+     * current. Whether the weather is volatile hasn't changed then.
+     */
+    void recordUnchangedSync() {
+        mUnchangedStreak++;
+    }
+
+    /**
+     * @param nowMillis When the user opened the app
+     */
+    void recordAppOpened(long nowMillis) {
+        mLastOpenMillis = nowMillis;
+        mOpensByHour[getHourOfDay(nowMillis)]++;
+
+        int total = 0;
+        for (int opens : mOpensByHour) {
+            total += opens;
+        }
+        if (total > OPEN_COUNT_LIMIT) {
+            for (int hour = 0; hour < mOpensByHour.length; hour++) {
+                mOpensByHour[hour] /= 2;
+            }
+        }
+    }
+
+    /**
+     * @param nowMillis The time the last sync finished
+     * @return How long to wait before the next sync may start
+     */
+    long getIntervalMillis(long nowMillis) {
+        long idleMillis = mLastOpenMillis < 0 ? 0 : nowMillis - mLastOpenMillis;
+
+        long interval;
+        if (mVolatile) {
+            interval = VOLATILE_INTERVAL_MILLIS;
+        } else {
+            interval = BASE_INTERVAL_MILLIS << Math.min(mUnchangedStreak, MAX_UNCHANGED_DOUBLINGS);
+            if (idleMillis >= DORMANT_AFTER_MILLIS) {
+                interval = MAX_INTERVAL_MILLIS;
+            } else if (idleMillis >= IDLE_AFTER_MILLIS) {
+                interval = Math.max(interval, IDLE_INTERVAL_MILLIS);
+            }
+        }
+
+        /* An idle user's old habits don't tell us when they will be back */
+        if (idleMillis < IDLE_AFTER_MILLIS) {
+            long untilOpen = getMillisUntilTypicalOpen(nowMillis);
+            if (untilOpen >= 0) {
+                /* The whole window, flex time included, should end before the open */
+                long beforeOpen = (untilOpen - LEAD_BEFORE_OPEN_MILLIS) * 3 / 4;
+                if (beforeOpen >= MIN_INTERVAL_MILLIS && beforeOpen < interval) {
+                    interval = beforeOpen;
+                }
+            }
+        }
+
+        return Math.max(MIN_INTERVAL_MILLIS, Math.min(MAX_INTERVAL_MILLIS, interval));
+    }
+
+    /**
+     * @param intervalMillis An interval returned by {@link #getIntervalMillis(long)}
+     * @return How much later than the interval the sync may run, to let the system batch it with
+     * other work. A third of the interval, so 1 hour for the base interval of 3 hours.
+     */
+    static long getFlexMillis(long intervalMillis) {
+        return intervalMillis / 3;
+    }
+
+    /**
+     * Weather IDs in the 2xx range are thunderstorms, those in the 9xx range extreme weather
+     * like tornadoes and hurricanes. See http://openweathermap.org/weather-conditions.
+     *
+     * @param forecast The forecast that was just synced
+     * @param today    The normalized UTC date of today
+     * @return Whether today or tomorrow has any of that
+     */
+    static boolean isVolatile(ForecastBatch forecast, long today) {
+        for (int day = 0; day < forecast.size(); day++) {
+            long date = forecast.getDate(day);
+            if (date < today || date > today + DAY_IN_MILLIS) {
+                continue;
+            }
+            int weatherId = forecast.getWeatherId(day);
+            if ((weatherId >= 200 && weatherId < 300) || (weatherId >= 900 && weatherId < 1000)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return How long until the start of the next hour in which the user typically opens the
+     * app, or -1 if they don't have such a habit. An hour that has already started counts as
+     * tomorrow's.
+     */
+    private long getMillisUntilTypicalOpen(long nowMillis) {
+        int total = 0;
+        for (int opens : mOpensByHour) {
+            total += opens;
+        }
+
+        long localNow = nowMillis + mTimeZone.getOffset(nowMillis);
+        long millisIntoDay = localNow % DAY_IN_MILLIS;
+
+        long soonest = -1;
+        for (int hour = 0; hour < mOpensByHour.length; hour++) {
+            int opens = mOpensByHour[hour];
+            if (opens < TYPICAL_OPEN_MIN_COUNT || opens * 100 < total * TYPICAL_OPEN_MIN_PERCENT) {
+                continue;
+            }
+            long until = hour * HOUR_IN_MILLIS - millisIntoDay;
+            if (until <= 0) {
+                until += DAY_IN_MILLIS;
+            }
+            if (soonest < 0 || until < soonest) {
+                soonest = until;
+            }
+        }
+        return soonest;
+    }
+
+    private int getHourOfDay(long millis) {
+        long localMillis = millis + mTimeZone.getOffset(millis);
+        return (int) (localMillis % DAY_IN_MILLIS / HOUR_IN_MILLIS);
+    }
+
+    void readFrom(SharedPreferences preferences) {
+        mUnchangedStreak = preferences.getInt(PREF_UNCHANGED_STREAK, 0);
+        mVolatile = preferences.getBoolean(PREF_VOLATILE, false);
+        mLastOpenMillis = preferences.getLong(PREF_LAST_OPEN, -1);
+
+        String opensByHour = preferences.getString(PREF_OPENS_BY_HOUR, null);
+        if (opensByHour != null) {
+            String[] counts = opensByHour.split(",");
+            for (int hour = 0; hour < mOpensByHour.length && hour < counts.length; hour++) {
+                try {
+                    mOpensByHour[hour] = Integer.parseInt(counts[hour]);
+                } catch (NumberFormatException e) {
+                    mOpensByHour[hour] = 0;
+                }
+            }
+        }
+    }
+
+    void writeTo(SharedPreferences.Editor editor) {
+        StringBuilder opensByHour = new StringBuilder();
+        for (int hour = 0; hour < mOpensByHour.length; hour++) {
+            if (hour > 0) {
+                opensByHour.append(',');
+            }
+            opensByHour.append(mOpensByHour[hour]);
+        }
+
+        editor.putInt(PREF_UNCHANGED_STREAK, mUnchangedStreak)
+                .putBoolean(PREF_VOLATILE, mVolatile)
+                .putLong(PREF_LAST_OPEN, mLastOpenMillis)
+                .putString(PREF_OPENS_BY_HOUR, opensByHour.toString());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import com.example.android.sunshine.data.ForecastBatch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs a forecast into the few hundred bytes that are sent to the wear device, so that it can
+ * keep showing the right day's weather without the phone, until the forecast runs out.
+ * <p>
+ * The packed forecast holds, in this order and in network byte order:
+ * <p>
+ * 1) The format version, an int, currently {@link #FORMAT_VERSION}.
+ * 2) The number of days, an int.
+ * 3) The normalized UTC date of each day, a long per day.
+ * 4) The weather ID of each day, an int per day.
+ * 5) The max temperature of each day, rounded to an int, an int per day.
+ * 6) The min temperature of each day, rounded to an int, an int per day.
+ * <p>
+ * PackedForecast in the wear module reads this format, the two must be changed together.
+ */
+final class WearForecast {
+
+    /* The key of the packed forecast in the wear data item */
+    static final String KEY_FORECAST = "FORECAST";
+
+    static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 2 * 4;
+
+    /* A long date and three ints */
+    private static final int BYTES_PER_DAY = 8 + 3 * 4;
+
+    private WearForecast() {
+    }
+
+    /**
+     * @param forecast The forecast to pack
+     * @return The packed forecast
+     */
+    static byte[] pack(ForecastBatch forecast) {
+        int days = forecast.size();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + days * BYTES_PER_DAY);
+
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putInt(days);
+        for (int day = 0; day < days; day++) {
+            buffer.putLong(forecast.getDate(day));
+        }
+        for (int day = 0; day < days; day++) {
+            buffer.putInt(forecast.getWeatherId(day));
+        }
+        for (int day = 0; day < days; day++) {
+            buffer.putInt(Math.round((float) forecast.getMaxTemp(day)));
+        }
+        for (int day = 0; day < days; day++) {
+            buffer.putInt(Math.round((float) forecast.getMinTemp(day)));
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SyncMetrics;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Decides when a synced forecast is sent to the wear device, so that the watch's radio is only
+ * woken up when there is something worth waking it for.
+ * <p>
+ * 1) A forecast that packs to exactly what was sent last isn't sent again. We compare a digest of
+ * the packed forecast, which is kept in SharedPreferences so this holds across restarts.
+ * 2) A forecast that changes today's weather significantly, or the first one we ever send, is
+ * sent right away as an urgent data item.
+ * 3) Everything else waits for {@link #COALESCE_DELAY_MILLIS}, and is then sent without urgency.
+ * A forecast that arrives while another one is waiting replaces it, so a burst of syncs, like a
+ * manual refresh right after a scheduled sync, ends up as one data item.
+ * <p>
+ * A waiting forecast is lost if our process dies before it is sent. Its digest was never saved
+ * then, so the next sync sends it instead.
+ * <p>
+ * What happened to each forecast is counted in {@link SyncMetrics}, as its wear pushes.
+ */
+final class WearPushScheduler {
+
+    private static final String TAG = WearPushScheduler.class.getSimpleName();
+
+    private static final String DATA_PATH = "/sunshine-weather";
+
+    static final long COALESCE_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /*
+     * Changing today's high or low by this many degrees, in the units the forecast was synced in,
+     * is worth waking the watch for. Smaller changes can wait.
+     */
+    static final int SIGNIFICANT_TEMP_CHANGE = 3;
+
+    private static final String PREFERENCES_NAME = "wear_push";
+    private static final String PREF_DIGEST = "digest";
+    private static final String PREF_DATE = "date";
+    private static final String PREF_WEATHER_ID = "weather_id";
+    private static final String PREF_MAX_TEMP = "max_temp";
+    private static final String PREF_MIN_TEMP = "min_temp";
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    /* Guarded by WearPushScheduler.class */
+    private static Push sPendingPush;
+
+    private static final Runnable sSendPendingPush = new Runnable() {
+        @Override
+        public void run() {
+            Push push;
+            synchronized (WearPushScheduler.class) {
+                push = sPendingPush;
+                sPendingPush = null;
+            }
+            if (push != null) {
+                send(push, false);
+            }
+        }
+    };
+
+    private WearPushScheduler() {
+    }
+
+    /**
+     * Sends the forecast to the wear device, now, later or not at all, as described above.
+     *
+     * @param context  Used to connect to the wear device and to read what was sent last
+     * @param forecast The forecast that was just synced
+     */
+    static synchronized void schedule(Context context, ForecastBatch forecast) {
+        Push push = new Push(context.getApplicationContext(), forecast,
+                SunshineDateUtils.getNormalizedUtcDateForToday());
+
+        Push current = sPendingPush != null ? sPendingPush : readLastPush(context);
+        if (current != null && current.mDigest == push.mDigest) {
+            SyncMetrics.recordWearPush(SyncMetrics.WEAR_PUSH_UNCHANGED);
+            return;
+        }
+
+        if (push.isSignificantChangeFrom(current)) {
+            sHandler.removeCallbacks(sSendPendingPush);
+            if (sPendingPush != null) {
+                SyncMetrics.recordWearPush(SyncMetrics.WEAR_PUSH_COALESCED);
+                sPendingPush = null;
+            }
+            send(push, true);
+            return;
+        }
+
+        if (sPendingPush != null) {
+            /* The pending push is already scheduled, we just hand it a newer forecast */
+            SyncMetrics.recordWearPush(SyncMetrics.WEAR_PUSH_COALESCED);
+        } else {
+            sHandler.postDelayed(sSendPendingPush, COALESCE_DELAY_MILLIS);
+        }
+        sPendingPush = push;
+    }
+
+    private static void send(final Push push, boolean urgent) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(DATA_PATH);
+
+        /*
+         * We send the whole forecast rather than just today's weather, so that the wear device
+         * can move on to the next day by itself. The wear module ships with the same art as the
+         * app, so the weather ID is all it needs to draw each day's icon.
+         */
+        putDataMapRequest.getDataMap().putByteArray(WearForecast.KEY_FORECAST, push.mPacked);
+        if (urgent) {
+            putDataMapRequest.setUrgent();
+        }
+        PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
+
+        /*
+         * Remember what we sent right away, so that the next sync compares against it even if
+         * the result hasn't come back yet. If sending fails, we forget it again.
+         */
+        saveLastPush(push);
+        SyncMetrics.recordWearPush(
+                urgent ? SyncMetrics.WEAR_PUSH_URGENT : SyncMetrics.WEAR_PUSH_SENT);
+
+        Wearable.DataApi
+                .putDataItem(SunshineSyncTask.getGoogleApiClient(push.mContext), putDataRequest)
+                .setResultCallback(
+                        new ResultCallback<DataApi.DataItemResult>() {
+                            @Override
+                            public void onResult(@NonNull DataApi.DataItemResult result) {
+                                if (!result.getStatus().isSuccess()) {
+                                    Log.w(TAG, "Couldn't send the forecast: "
+                                            + result.getStatus());
+                                    SyncMetrics.recordWearPush(
+                                            SyncMetrics.WEAR_PUSH_FAILED);
+                                    forgetLastPush(push);
+                                }
+                            }
+                        });
+    }
+
+    private static Push readLastPush(Context context) {
+        SharedPreferences preferences = getPreferences(context);
+        if (!preferences.contains(PREF_DIGEST)) {
+            return null;
+        }
+        return new Push(preferences.getLong(PREF_DIGEST, 0),
+                preferences.getLong(PREF_DATE, 0),
+                preferences.getInt(PREF_WEATHER_ID, 0),
+                preferences.getInt(PREF_MAX_TEMP, 0),
+                preferences.getInt(PREF_MIN_TEMP, 0));
+    }
+
+    private static void saveLastPush(Push push) {
+        getPreferences(push.mContext).edit()
+                .putLong(PREF_DIGEST, push.mDigest)
+                .putLong(PREF_DATE, push.mDate)
+                .putInt(PREF_WEATHER_ID, push.mWeatherId)
+                .putInt(PREF_MAX_TEMP, push.mMaxTemp)
+                .putInt(PREF_MIN_TEMP, push.mMinTemp)
+                .apply();
+    }
+
+    /**
+     * Forgets the given push, unless a newer one has been sent since.
+     */
+    private static synchronized void forgetLastPush(Push push) {
+        SharedPreferences preferences = getPreferences(push.mContext);
+        if (preferences.getLong(PREF_DIGEST, 0) == push.mDigest) {
+            preferences.edit().clear().apply();
+        }
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * A forecast packed for the wear device, and what we need to know about it to decide how to
+     * send the next one.
+     */
+    static final class Push {
+
+        final Context mContext;
+        final byte[] mPacked;
+        final long mDigest;
+
+        /* Today's date and weather, as far as this forecast knows it. A date of -1 if it doesn't */
+        final long mDate;
+        final int mWeatherId;
+        final int mMaxTemp;
+        final int mMinTemp;
+
+        Push(Context context, ForecastBatch forecast, long today) {
+            mContext = context;
+            mPacked = WearForecast.pack(forecast);
+
+            CRC32 crc = new CRC32();
+            crc.update(mPacked);
+            mDigest = crc.getValue();
+
+            int day = forecast.indexOfDate(today);
+            if (day < 0) {
+                mDate = -1;
+                mWeatherId = 0;
+                mMaxTemp = 0;
+                mMinTemp = 0;
+            } else {
+                mDate = today;
+                mWeatherId = forecast.getWeatherId(day);
+                mMaxTemp = Math.round((float) forecast.getMaxTemp(day));
+                mMinTemp = Math.round((float) forecast.getMinTemp(day));
+            }
+        }
+
+        /* A push that was sent before, of which only the summary was kept */
+        Push(long digest, long date, int weatherId, int maxTemp, int minTemp) {
+            mContext = null;
+            mPacked = null;
+            mDigest = digest;
+            mDate = date;
+            mWeatherId = weatherId;
+            mMaxTemp = maxTemp;
+            mMinTemp = minTemp;
+        }
+
+        /**
+         * Whether this forecast changes what the watch shows for today enough to deliver it
+         * right away. If the previous forecast was for another day, the watch has already moved
+         * on to today's weather from that forecast, and we have nothing to compare against.
+         *
+         * @param previous The forecast that was sent or scheduled before, or null if none was
+         * @return True if this is the first forecast, or if today's weather changed significantly
+         */
+        boolean isSignificantChangeFrom(Push previous) {
+            if (previous == null) {
+                return true;
+            }
+            if (mDate < 0 || mDate != previous.mDate) {
+                return false;
+            }
+            return mWeatherId != previous.mWeatherId
+                    || Math.abs(mMaxTemp - previous.mMaxTemp) >= SIGNIFICANT_TEMP_CHANGE
+                    || Math.abs(mMinTemp - previous.mMinTemp) >= SIGNIFICANT_TEMP_CHANGE;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how much data {@link NetworkUtils} has downloaded and how much work it has
+ * saved us since the app's process
+ * was started. These are only kept in memory and are meant for measuring, not for making
+ * decisions in the app.
+ */
+public final class NetworkStats {
+
+    /* Conditional requests that the server answered with 304 Not Modified */
+    private static final AtomicLong sNotModifiedCount = new AtomicLong();
+
+    /* Conditional requests that the server answered with a full response */
+    private static final AtomicLong sModifiedCount = new AtomicLong();
+
+    /* Bytes of response bodies we didn't have to download thanks to a 304 */
+    private static final AtomicLong sBytesSaved = new AtomicLong();
+
+    /* Responses with a body, and how many of them were compressed */
+    private static final AtomicLong sResponseCount = new AtomicLong();
+    private static final AtomicLong sCompressedResponseCount = new AtomicLong();
+
+    /* Bytes of response bodies as they came over the wire, and after decompressing them */
+    private static final AtomicLong sWireBytes = new AtomicLong();
+    private static final AtomicLong sDecodedBytes = new AtomicLong();
+
+    private NetworkStats() {
+    }
+
+    static void recordNotModified(long bytesSaved) {
+        sNotModifiedCount.incrementAndGet();
+        sBytesSaved.addAndGet(bytesSaved);
+    }
+
+    static void recordModified() {
+        sModifiedCount.incrementAndGet();
+    }
+
+    static void recordResponse(long wireBytes, long decodedBytes, boolean compressed) {
+        sResponseCount.incrementAndGet();
+        if (compressed) {
+            sCompressedResponseCount.incrementAndGet();
+        }
+        sWireBytes.addAndGet(wireBytes);
+        sDecodedBytes.addAndGet(decodedBytes);
+    }
+
+    /**
+     * @return The number of conditional requests that were answered with 304 Not Modified
+     */
+    public static long getNotModifiedCount() {
+        return sNotModifiedCount.get();
+    }
+
+    /**
+     * @return The number of conditional requests that were answered with a full response
+     */
+    public static long getModifiedCount() {
+        return sModifiedCount.get();
+    }
+
+    /**
+     * @return An estimate of the response bytes that didn't have to be downloaded, based on the
+     * size of the response that was last downloaded in full
+     */
+    public static long getBytesSaved() {
+        return sBytesSaved.get();
+    }
+
+    /**
+     * @return The number of responses whose body was read
+     */
+    public static long getResponseCount() {
+        return sResponseCount.get();
+    }
+
+    /**
+     * @return The number of responses whose body was compressed by the server
+     */
+    public static long getCompressedResponseCount() {
+        return sCompressedResponseCount.get();
+    }
+
+    /**
+     * @return The number of body bytes that were downloaded, before decompressing them
+     */
+    public static long getWireBytes() {
+        return sWireBytes.get();
+    }
+
+    /**
+     * @return The number of body bytes that were handed to the app, after decompressing them
+     */
+    public static long getDecodedBytes() {
+        return sDecodedBytes.get();
+    }
+
+    /**
+     * @return A one line summary of all counters, handy for logging
+     */
+    public static String getSummary() {
+        return "not modified: " + getNotModifiedCount()
+                + ", modified: " + getModifiedCount()
+                + ", bytes saved: " + getBytesSaved()
+                + ", compressed responses: " + getCompressedResponseCount()
+                + "/" + getResponseCount()
+                + ", wire bytes: " + getWireBytes()
+                + ", decoded bytes: " + getDecodedBytes();
+    }
+}
@@ -16,17 +16,24 @@
 package com.example.android.sunshine.utilities;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.net.Uri;
 import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -83,6 +90,78 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /*
+     * A forecast is a few kilobytes at most. Anything much larger than that isn't something we
+     * asked for, so we refuse to read more than this many bytes of any response.
+     */
+    static final int MAX_RESPONSE_BYTES = 1024 * 1024;
+
+    /*
+     * The buffer between the socket and whoever reads the response is sized to hold the whole
+     * body when the server tells us how long it is, within these bounds.
+     */
+    private static final int MIN_RESPONSE_BUFFER_BYTES = 1024;
+    private static final int MAX_RESPONSE_BUFFER_BYTES = 16 * 1024;
+
+    /* Headers used to make conditional requests, so that unchanged responses aren't resent */
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /*
+     * The validators of the last response are kept in their own SharedPreferences file, apart
+     * from the user's preferences, along with the URL they belong to and the size of its body.
+     */
+    private static final String VALIDATOR_PREFERENCES_NAME = "http_validators";
+    private static final String PREF_VALIDATED_URL = "url";
+    private static final String PREF_ETAG = "etag";
+    private static final String PREF_LAST_MODIFIED = "last_modified";
+    private static final String PREF_BODY_LENGTH = "body_length";
+
+    /*
+     * The validators of the last response that was handled, until whoever handled it has stored
+     * its data and commits them. Guarded by NetworkUtils.class.
+     */
+    private static Validators sPendingValidators;
+
+    /*
+     * The forecast is JSON and compresses very well, so we ask for it compressed. Setting
+     * Accept-Encoding ourselves turns off HttpURLConnection's transparent gzip support, which
+     * would otherwise hide both the encoding and the number of bytes that went over the wire.
+     */
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+    private static final String ENCODING_IDENTITY = "identity";
+    private static final String ACCEPTED_ENCODINGS = ENCODING_GZIP + ", " + ENCODING_DEFLATE;
+
+    /* Size of the buffer used to feed compressed bytes to the decompressor */
+    private static final int DECOMPRESSION_BUFFER_BYTES = 4 * 1024;
+
+    /**
+     * Receives the body of an HTTP response as it is being downloaded.
+     *
+     * @param <T> The type of result produced from the response
+     */
+    public interface ResponseHandler<T> {
+
+        /**
+         * Called with the body of a successful response. The stream is buffered, already
+         * decompressed if the server compressed the body, stops after
+         * {@link NetworkUtils#MAX_RESPONSE_BYTES} and is closed once this method returns, so it
+         * must not be held on to.
+         *
+         * @param responseStream The body of the response
+         * @param contentLength  The length of the body in bytes, or -1 if it isn't known up front,
+         *                       which is always the case for compressed bodies
+         * @return The result of handling the response
+         * @throws IOException Related to network and stream reading
+         */
+        T onResponse(InputStream responseStream, int contentLength) throws IOException;
+    }
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -162,29 +241,404 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * This method returns the entire result from the HTTP response. Prefer
+     * {@link #readResponseFromHttpUrl(URL, ResponseHandler)}, which lets the response be parsed
+     * while it is still being downloaded.
      *
      * @param url The URL to fetch the HTTP response from.
      * @return The contents of the HTTP response, null if no response
      * @throws IOException Related to network and stream reading
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
+        return readResponseFromHttpUrl(url, new ResponseHandler<String>() {
+            @Override
+            public String onResponse(InputStream responseStream, int contentLength)
+                    throws IOException {
+                ByteArrayOutputStream response = new ByteArrayOutputStream(
+                        contentLength > 0 ? contentLength : MIN_RESPONSE_BUFFER_BYTES);
+                byte[] buffer = new byte[MIN_RESPONSE_BUFFER_BYTES];
+                int bytesRead;
+                while ((bytesRead = responseStream.read(buffer)) != -1) {
+                    response.write(buffer, 0, bytesRead);
+                }
+
+                if (response.size() == 0) {
+                    return null;
+                }
+                return response.toString("UTF-8");
+            }
+        });
+    }
+
+    /**
+     * Performs a GET request on the given URL and hands the body of the response to the given
+     * handler as a stream, so that it can be consumed while it is still being downloaded rather
+     * than after the whole body has been copied into memory.
+     *
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Consumes the body of the response
+     * @param <T>     The type of result produced by the handler
+     * @return Whatever the handler returned for the response
+     * @throws IOException Related to network and stream reading, or if the response is larger
+     *                     than {@link #MAX_RESPONSE_BYTES}
+     */
+    public static <T> T readResponseFromHttpUrl(URL url, ResponseHandler<T> handler)
+            throws IOException {
+        return readResponseFromHttpUrl(url, handler, null);
+    }
+
+    /**
+     * Performs a conditional GET request on the given URL. If we have already successfully
+     * handled a response from this URL, the validators the server sent with it (ETag and
+     * Last-Modified) are sent back. Should the server answer that nothing has changed since, the
+     * handler is not called at all and null is returned.
+     * <p>
+     * The validators of a response are only sent with later requests once the caller has
+     * stored what the handler returned for it, and said so with {@link #commitValidators}. A
+     * response that couldn't be handled or stored will be downloaded again next time.
+     *
+     * @param context Used to access the saved validators
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Consumes the body of the response
+     * @param <T>     The type of result produced by the handler
+     * @return Whatever the handler returned for the response, or null if it wasn't modified
+     * @throws IOException Related to network and stream reading, or if the response is larger
+     *                     than {@link #MAX_RESPONSE_BYTES}
+     */
+    public static <T> T readResponseFromHttpUrl(Context context, URL url,
+                                                ResponseHandler<T> handler) throws IOException {
+        return readResponseFromHttpUrl(url, handler, getValidatorPreferences(context));
+    }
+
+    /**
+     * Forgets the validators of the last response, so that the next request is guaranteed to
+     * return the full response. This needs to be done whenever the data we got from that
+     * response has been lost, for example if our database is empty.
+     *
+     * @param context Used to access the saved validators
+     */
+    public static void clearCachedValidators(Context context) {
+        synchronized (NetworkUtils.class) {
+            sPendingValidators = null;
+        }
+        getValidatorPreferences(context).edit().clear().apply();
+    }
+
+    /**
+     * Saves the validators of the last response that was read with
+     * {@link #readResponseFromHttpUrl(Context, URL, ResponseHandler)}, so that the next request
+     * only downloads the response again if it has changed. Call this once the data the handler
+     * returned for it has been stored. If storing it failed, don't, and the validators of the
+     * data that is still stored remain in place.
+     *
+     * @param context Used to access the saved validators
+     */
+    public static void commitValidators(Context context) {
+        Validators validators;
+        synchronized (NetworkUtils.class) {
+            validators = sPendingValidators;
+            sPendingValidators = null;
+        }
+        if (validators != null) {
+            validators.saveTo(getValidatorPreferences(context));
+        }
+    }
+
+    private static <T> T readResponseFromHttpUrl(URL url, ResponseHandler<T> handler,
+                                                 SharedPreferences validators) throws IOException {
+        String urlString = url.toString();
+        boolean hasValidators = validators != null
+                && urlString.equals(validators.getString(PREF_VALIDATED_URL, null));
+
         HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
         try {
-            InputStream in = urlConnection.getInputStream();
+            urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+            if (hasValidators) {
+                String eTag = validators.getString(PREF_ETAG, null);
+                if (eTag != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+                }
+                String lastModified = validators.getString(PREF_LAST_MODIFIED, null);
+                if (lastModified != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+                }
+            }
+
+            long connectStart = System.nanoTime();
+            urlConnection.connect();
+            SyncMetrics.recordStage(SyncMetrics.STAGE_CONNECT, connectStart);
+
+            long firstByteStart = System.nanoTime();
+            int responseCode = urlConnection.getResponseCode();
+            SyncMetrics.recordStage(SyncMetrics.STAGE_FIRST_BYTE, firstByteStart);
+
+            if (validators != null) {
+                setPendingValidators(null);
+            }
+
+            if (hasValidators && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                /* The body we would have downloaded is the same size as the last one */
+                NetworkStats.recordNotModified(validators.getLong(PREF_BODY_LENGTH, 0));
+                return null;
+            }
+
+            int contentLength = urlConnection.getContentLength();
+            if (contentLength > MAX_RESPONSE_BYTES) {
+                throw new IOException("Response of " + contentLength + " bytes is too large");
+            }
+
+            /*
+             * Both the bytes that come over the wire and the bytes they decompress to are
+             * counted and bounded. The second bound keeps a small compressed response from
+             * inflating into something we can't hold.
+             */
+            String contentEncoding = getContentEncoding(urlConnection);
+            BoundedInputStream wireStream =
+                    new BoundedInputStream(urlConnection.getInputStream(), MAX_RESPONSE_BYTES);
+            BoundedInputStream decodedStream = new BoundedInputStream(
+                    decodeResponse(wireStream, contentEncoding), MAX_RESPONSE_BYTES);
+            int decodedLength = contentEncoding == null ? contentLength : -1;
+            InputStream in = new BufferedInputStream(decodedStream,
+                    getResponseBufferSize(decodedLength));
+            T result;
+            long handlerStart = System.nanoTime();
+            try {
+                result = handler.onResponse(in, decodedLength);
+            } finally {
+                in.close();
+            }
+
+            /*
+             * The handler reads the body as it parses it. The time it spent waiting for the
+             * wire is the download, everything else is parsing.
+             */
+            long handlerNanos = System.nanoTime() - handlerStart;
+            SyncMetrics.recordStageNanos(SyncMetrics.STAGE_DOWNLOAD, wireStream.getReadNanos());
+            SyncMetrics.recordStageNanos(SyncMetrics.STAGE_PARSE,
+                    handlerNanos - wireStream.getReadNanos());
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+            NetworkStats.recordResponse(wireStream.getBytesRead(), decodedStream.getBytesRead(),
+                    contentEncoding != null);
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+            if (validators != null) {
+                NetworkStats.recordModified();
+                if (result != null) {
+                    setPendingValidators(new Validators(urlString,
+                            urlConnection.getHeaderField(HEADER_ETAG),
+                            urlConnection.getHeaderField(HEADER_LAST_MODIFIED),
+                            wireStream.getBytesRead()));
+                }
             }
-            scanner.close();
-            return response;
+
+            return result;
         } finally {
             urlConnection.disconnect();
         }
     }
-}
\ No newline at end of file
+
+    private static synchronized void setPendingValidators(Validators validators) {
+        sPendingValidators = validators;
+    }
+
+    /**
+     * Returns the encoding the server compressed the body with.
+     *
+     * @param urlConnection The connection the response was received on
+     * @return {@link #ENCODING_GZIP}, {@link #ENCODING_DEFLATE} or null if the body wasn't
+     * compressed
+     * @throws IOException If the body was encoded in a way we didn't ask for
+     */
+    private static String getContentEncoding(HttpURLConnection urlConnection) throws IOException {
+        String contentEncoding = urlConnection.getHeaderField(HEADER_CONTENT_ENCODING);
+        if (contentEncoding == null) {
+            return null;
+        }
+
+        contentEncoding = contentEncoding.trim().toLowerCase(Locale.US);
+        switch (contentEncoding) {
+            case "":
+            case ENCODING_IDENTITY:
+                return null;
+            case ENCODING_GZIP:
+            case ENCODING_DEFLATE:
+                return contentEncoding;
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+    }
+
+    /**
+     * Wraps the body of a response so that it is decompressed while it is being read.
+     *
+     * @param in              The body as it comes over the wire
+     * @param contentEncoding The encoding returned by {@link #getContentEncoding}
+     * @return A stream of the decompressed body
+     * @throws IOException If the gzip header couldn't be read
+     */
+    private static InputStream decodeResponse(InputStream in, String contentEncoding)
+            throws IOException {
+        if (contentEncoding == null) {
+            return in;
+        }
+
+        if (ENCODING_GZIP.equals(contentEncoding)) {
+            return new GZIPInputStream(in, DECOMPRESSION_BUFFER_BYTES);
+        }
+
+        /*
+         * "deflate" is supposed to mean a zlib stream, but some servers send raw deflate data
+         * without the zlib header. The first two bytes tell the two apart.
+         */
+        BufferedInputStream peekable = new BufferedInputStream(in, DECOMPRESSION_BUFFER_BYTES);
+        peekable.mark(2);
+        int cmf = peekable.read();
+        int flg = peekable.read();
+        peekable.reset();
+        boolean hasZlibHeader = cmf != -1 && flg != -1
+                && (cmf & 0x0f) == 8
+                && ((cmf << 8) | flg) % 31 == 0;
+
+        /* Unlike its default Inflater, InflaterInputStream won't release one we pass in */
+        return new InflaterInputStream(peekable, new Inflater(!hasZlibHeader),
+                DECOMPRESSION_BUFFER_BYTES) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    private static SharedPreferences getValidatorPreferences(Context context) {
+        return context.getSharedPreferences(VALIDATOR_PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns how large the buffer in front of a response should be. If we know the length of
+     * the body, the buffer will be just large enough to hold all of it.
+     *
+     * @param contentLength The length of the body in bytes, or -1 if unknown
+     * @return The size of the buffer in bytes
+     */
+    private static int getResponseBufferSize(int contentLength) {
+        if (contentLength <= 0) {
+            return MAX_RESPONSE_BUFFER_BYTES;
+        }
+        return Math.max(MIN_RESPONSE_BUFFER_BYTES,
+                Math.min(contentLength, MAX_RESPONSE_BUFFER_BYTES));
+    }
+
+    /**
+     * The validators the server sent for a response, along with the URL they belong to and the
+     * size of its body.
+     */
+    private static final class Validators {
+
+        final String mUrl;
+        final String mETag;
+        final String mLastModified;
+        final long mBodyLength;
+
+        Validators(String url, String eTag, String lastModified, long bodyLength) {
+            mUrl = url;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mBodyLength = bodyLength;
+        }
+
+        /**
+         * Saves the validators, replacing those of any previous response. We only ever fetch one
+         * forecast at a time, so there is no point in keeping the validators of URLs we no
+         * longer request around.
+         */
+        void saveTo(SharedPreferences preferences) {
+            SharedPreferences.Editor editor = preferences.edit().clear();
+            if (mETag != null || mLastModified != null) {
+                editor.putString(PREF_VALIDATED_URL, mUrl);
+                editor.putLong(PREF_BODY_LENGTH, mBodyLength);
+                if (mETag != null) {
+                    editor.putString(PREF_ETAG, mETag);
+                }
+                if (mLastModified != null) {
+                    editor.putString(PREF_LAST_MODIFIED, mLastModified);
+                }
+            }
+            editor.apply();
+        }
+    }
+
+    /**
+     * An InputStream that throws an IOException once more than a given number of bytes have
+     * been read from it. This protects us from servers that don't send a Content-Length and
+     * then never stop sending data.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private final long mMaxBytes;
+        private long mBytesRead;
+
+        /* How long reading from the underlying stream took, in total */
+        private long mReadNanos;
+
+        BoundedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            mMaxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) {
+                onBytesRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int bytesRead = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - start;
+            if (bytesRead > 0) {
+                onBytesRead(bytesRead);
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long start = System.nanoTime();
+            long bytesSkipped = super.skip(byteCount);
+            mReadNanos += System.nanoTime() - start;
+            if (bytesSkipped > 0) {
+                onBytesRead(bytesSkipped);
+            }
+            return bytesSkipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        long getBytesRead() {
+            return mBytesRead;
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+
+        private void onBytesRead(long byteCount) throws IOException {
+            mBytesRead += byteCount;
+            if (mBytesRead > mMaxBytes) {
+                throw new IOException("Response is larger than " + mMaxBytes + " bytes");
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@ import android.support.v4.content.ContextCompat;
 
 import com.example.android.sunshine.DetailActivity;
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
@@ -79,68 +80,105 @@ public class NotificationUtils {
             double high = todayWeatherCursor.getDouble(INDEX_MAX_TEMP);
             double low = todayWeatherCursor.getDouble(INDEX_MIN_TEMP);
 
-            Resources resources = context.getResources();
-            int largeArtResourceId = SunshineWeatherUtils
-                    .getLargeArtResourceIdForWeatherCondition(weatherId);
-
-            Bitmap largeIcon = BitmapFactory.decodeResource(
-                    resources,
-                    largeArtResourceId);
-
-            String notificationTitle = context.getString(R.string.app_name);
-
-            String notificationText = getNotificationText(context, weatherId, high, low);
-
-            /* getSmallArtResourceIdForWeatherCondition returns the proper art to show given an ID */
-            int smallArtResourceId = SunshineWeatherUtils
-                    .getSmallArtResourceIdForWeatherCondition(weatherId);
-
-            /*
-             * NotificationCompat Builder is a very convenient way to build backward-compatible
-             * notifications. In order to use it, we provide a context and specify a color for the
-             * notification, a couple of different icons, the title for the notification, and
-             * finally the text of the notification, which in our case in a summary of today's
-             * forecast.
-             */
-            NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context)
-                    .setColor(ContextCompat.getColor(context,R.color.colorPrimary))
-                    .setSmallIcon(smallArtResourceId)
-                    .setLargeIcon(largeIcon)
-                    .setContentTitle(notificationTitle)
-                    .setContentText(notificationText)
-                    .setAutoCancel(true);
-
-            /*
-             * This Intent will be triggered when the user clicks the notification. In our case,
-             * we want to open Sunshine to the DetailActivity to display the newly updated weather.
-             */
-            Intent detailIntentForToday = new Intent(context, DetailActivity.class);
-            detailIntentForToday.setData(todaysWeatherUri);
-
-            TaskStackBuilder taskStackBuilder = TaskStackBuilder.create(context);
-            taskStackBuilder.addNextIntentWithParentStack(detailIntentForToday);
-            PendingIntent resultPendingIntent = taskStackBuilder
-                    .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
-
-            notificationBuilder.setContentIntent(resultPendingIntent);
-
-            NotificationManager notificationManager = (NotificationManager)
-                    context.getSystemService(Context.NOTIFICATION_SERVICE);
-
-            /* WEATHER_NOTIFICATION_ID allows you to update or cancel the notification later on */
-            notificationManager.notify(WEATHER_NOTIFICATION_ID, notificationBuilder.build());
-
-            /*
-             * Since we just showed a notification, save the current time. That way, we can check
-             * next time the weather is refreshed if we should show another notification.
-             */
-            SunshinePreferences.saveLastNotificationTime(context, System.currentTimeMillis());
+            showWeatherNotification(context, todaysWeatherUri, weatherId, high, low);
         }
 
         /* Always close your cursor when you're done with it to avoid wasting resources. */
         todayWeatherCursor.close();
     }
 
+    /**
+     * Constructs and displays a notification for today's weather, taken from a forecast that was
+     * just downloaded rather than from our ContentProvider. This saves querying for what we
+     * already have in hand. If the forecast doesn't include today, no notification is shown,
+     * just as if the query had come back empty.
+     *
+     * @param context  Context used to use various Utility methods
+     * @param forecast The forecast that was just stored
+     */
+    public static void notifyUserOfNewWeather(Context context, ForecastBatch forecast) {
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        int todayIndex = forecast.indexOfDate(today);
+        if (todayIndex == -1) {
+            return;
+        }
+
+        showWeatherNotification(context,
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(today),
+                forecast.getWeatherId(todayIndex),
+                forecast.getMaxTemp(todayIndex),
+                forecast.getMinTemp(todayIndex));
+    }
+
+    /**
+     * Shows the notification for today's weather and remembers when it was shown.
+     *
+     * @param context          Context used to use various Utility methods
+     * @param todaysWeatherUri The URI the DetailActivity is opened with from the notification
+     * @param weatherId        ID as determined by Open Weather Map
+     * @param high             High temperature in celsius
+     * @param low              Low temperature in celsius
+     */
+    private static void showWeatherNotification(Context context, Uri todaysWeatherUri,
+                                                int weatherId, double high, double low) {
+        Resources resources = context.getResources();
+        int largeArtResourceId = SunshineWeatherUtils
+                .getLargeArtResourceIdForWeatherCondition(weatherId);
+
+        Bitmap largeIcon = BitmapFactory.decodeResource(
+                resources,
+                largeArtResourceId);
+
+        String notificationTitle = context.getString(R.string.app_name);
+
+        String notificationText = getNotificationText(context, weatherId, high, low);
+
+        /* getSmallArtResourceIdForWeatherCondition returns the proper art to show given an ID */
+        int smallArtResourceId = SunshineWeatherUtils
+                .getSmallArtResourceIdForWeatherCondition(weatherId);
+
+        /*
+         * NotificationCompat Builder is a very convenient way to build backward-compatible
+         * notifications. In order to use it, we provide a context and specify a color for the
+         * notification, a couple of different icons, the title for the notification, and
+         * finally the text of the notification, which in our case in a summary of today's
+         * forecast.
+         */
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context)
+                .setColor(ContextCompat.getColor(context,R.color.colorPrimary))
+                .setSmallIcon(smallArtResourceId)
+                .setLargeIcon(largeIcon)
+                .setContentTitle(notificationTitle)
+                .setContentText(notificationText)
+                .setAutoCancel(true);
+
+        /*
+         * This Intent will be triggered when the user clicks the notification. In our case,
+         * we want to open Sunshine to the DetailActivity to display the newly updated weather.
+         */
+        Intent detailIntentForToday = new Intent(context, DetailActivity.class);
+        detailIntentForToday.setData(todaysWeatherUri);
+
+        TaskStackBuilder taskStackBuilder = TaskStackBuilder.create(context);
+        taskStackBuilder.addNextIntentWithParentStack(detailIntentForToday);
+        PendingIntent resultPendingIntent = taskStackBuilder
+                .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        notificationBuilder.setContentIntent(resultPendingIntent);
+
+        NotificationManager notificationManager = (NotificationManager)
+                context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+        /* WEATHER_NOTIFICATION_ID allows you to update or cancel the notification later on */
+        notificationManager.notify(WEATHER_NOTIFICATION_ID, notificationBuilder.build());
+
+        /*
+         * Since we just showed a notification, save the current time. That way, we can check
+         * next time the weather is refreshed if we should show another notification.
+         */
+        SunshinePreferences.saveLastNotificationTime(context, System.currentTimeMillis());
+    }
+
     /**
      * Constructs and returns the summary of a particular day's forecast using various utility
      * methods and resources for formatting. This method is only used to create the text for the
@@ -15,16 +15,23 @@
  */
 package com.example.android.sunshine.utilities;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
+import android.os.Build;
+import android.util.JsonReader;
 
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
-import com.example.android.sunshine.data.WeatherContract;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 
 /**
@@ -60,6 +67,21 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * Every day in the forecast must contain each of these fields. While streaming, we flag each
+     * one as we see it so that a day with missing data fails just like it would with JSONObject.
+     */
+    private static final int DAY_HAS_PRESSURE = 1;
+    private static final int DAY_HAS_HUMIDITY = 1 << 1;
+    private static final int DAY_HAS_WINDSPEED = 1 << 2;
+    private static final int DAY_HAS_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_HAS_WEATHER_ID = 1 << 4;
+    private static final int DAY_HAS_MAX = 1 << 5;
+    private static final int DAY_HAS_MIN = 1 << 6;
+    private static final int DAY_HAS_ALL_FIELDS = (1 << 7) - 1;
+
+    private static final String CHARSET_UTF_8 = "UTF-8";
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -77,6 +99,25 @@ public final class OpenWeatherJsonUtils {
     public static ContentValues[] getWeatherContentValuesFromJson(Context context, String forecastJsonStr)
             throws JSONException {
 
+        ForecastBatch forecast = getForecastBatchFromJson(context, forecastJsonStr);
+        return forecast == null ? null : forecast.toContentValues();
+    }
+
+    /**
+     * Parses the JSON from a web response into a {@link ForecastBatch}, one day per element of
+     * the forecast's "list" array. This is the parser behind
+     * {@link #getWeatherContentValuesFromJson(Context, String)}.
+     *
+     * @param context         Used to save the city's coordinates in SharedPreferences
+     * @param forecastJsonStr JSON response from server
+     *
+     * @return The forecast, or null if the server reported an error
+     *
+     * @throws JSONException If JSON data cannot be properly parsed
+     */
+    public static ForecastBatch getForecastBatchFromJson(Context context, String forecastJsonStr)
+            throws JSONException {
+
         JSONObject forecastJson = new JSONObject(forecastJsonStr);
 
         /* Is there an error? */
@@ -105,7 +146,7 @@ public final class OpenWeatherJsonUtils {
 
         SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
 
-        ContentValues[] weatherContentValues = new ContentValues[jsonWeatherArray.length()];
+        ForecastBatch forecast = new ForecastBatch(jsonWeatherArray.length());
 
         /*
          * OWM returns daily forecasts based upon the local time of the city that is being asked
@@ -166,19 +207,279 @@ public final class OpenWeatherJsonUtils {
             high = temperatureObject.getDouble(OWM_MAX);
             low = temperatureObject.getDouble(OWM_MIN);
 
-            ContentValues weatherValues = new ContentValues();
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-            weatherContentValues[i] = weatherValues;
+            forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                    windDirection);
+        }
+
+        return forecast;
+    }
+
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. Prefer
+     * {@link #getForecastBatchFromStream(Context, InputStream)}, which doesn't need to create a
+     * ContentValues for every day.
+     *
+     * @param context        Used to save the city's coordinates in SharedPreferences
+     * @param forecastStream UTF-8 encoded JSON response from server
+     *
+     * @return Array of ContentValues, one per day, or null if the server reported an error
+     *
+     * @throws IOException If the stream can't be read or doesn't contain a complete forecast
+     */
+    public static ContentValues[] getWeatherContentValuesFromStream(Context context, InputStream forecastStream)
+            throws IOException {
+
+        ForecastBatch forecast = getForecastBatchFromStream(context, forecastStream);
+        return forecast == null ? null : forecast.toContentValues();
+    }
+
+    /**
+     * Streaming counterpart of {@link #getForecastBatchFromJson(Context, String)}. Rather than
+     * building a JSONObject tree for the whole response first, the forecast is pulled token by
+     * token straight off the stream and each day is added to the batch as soon as it has been
+     * read. The forecast returned is identical to the one from the String version.
+     * <p/>
+     * The stream is not closed by this method; that is left to whoever opened it.
+     *
+     * @param context        Used to save the city's coordinates in SharedPreferences
+     * @param forecastStream UTF-8 encoded JSON response from server
+     *
+     * @return The forecast, or null if the server reported an error
+     *
+     * @throws IOException If the stream can't be read or doesn't contain a complete forecast
+     */
+    public static ForecastBatch getForecastBatchFromStream(Context context, InputStream forecastStream)
+            throws IOException {
+
+        Reader forecastReader = new InputStreamReader(forecastStream, CHARSET_UTF_8);
+
+        /*
+         * JsonReader was only added in Honeycomb. On older devices, we read the response into a
+         * String and hand it to the JSONObject based parser instead.
+         */
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            try {
+                return getForecastBatchFromJson(context, readFully(forecastReader));
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        return readForecast(context, new JsonReader(forecastReader));
+    }
+
+    /**
+     * Walks the top level object of the forecast response. The server doesn't guarantee any
+     * particular order of the "cod", "city" and "list" members, so we only decide what to do
+     * with the data once the whole object has been read.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ForecastBatch readForecast(Context context, JsonReader reader)
+            throws IOException {
+
+        int messageCode = HttpURLConnection.HTTP_OK;
+        double[] cityCoordinates = null;
+        ForecastBatch forecast = null;
+
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                /* The error code is sometimes sent as a String, which nextDouble also accepts */
+                messageCode = (int) reader.nextDouble();
+            } else if (OWM_CITY.equals(name)) {
+                cityCoordinates = readCityCoordinates(reader);
+            } else if (OWM_LIST.equals(name)) {
+                forecast = readDailyForecasts(reader, normalizedUtcStartDay);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        /* Is there an error? */
+        if (messageCode != HttpURLConnection.HTTP_OK) {
+            /* Either the location is invalid or the server is probably down */
+            return null;
+        }
+
+        if (forecast == null) {
+            throw new IOException("No value for " + OWM_LIST);
+        }
+
+        if (cityCoordinates == null) {
+            throw new IOException("No value for " + OWM_COORD);
+        }
+
+        SunshinePreferences.setLocationDetails(context, cityCoordinates[0], cityCoordinates[1]);
+
+        return forecast;
+    }
+
+    /**
+     * Reads the "city" object and returns the latitude and longitude from its "coord" child, or
+     * null if the city doesn't contain any coordinates.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static double[] readCityCoordinates(JsonReader reader) throws IOException {
+        double[] cityCoordinates = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_COORD.equals(reader.nextName())) {
+                boolean hasLatitude = false;
+                boolean hasLongitude = false;
+                cityCoordinates = new double[2];
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_LATITUDE.equals(name)) {
+                        cityCoordinates[0] = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(name)) {
+                        cityCoordinates[1] = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if (!hasLatitude || !hasLongitude) {
+                    throw new IOException("Incomplete " + OWM_COORD + " in " + OWM_CITY);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return cityCoordinates;
+    }
+
+    /**
+     * Reads the "list" array, adding each day's forecast to the batch as it goes.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ForecastBatch readDailyForecasts(JsonReader reader, long normalizedUtcStartDay)
+            throws IOException {
+
+        ForecastBatch forecast = new ForecastBatch();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            /*
+             * As in getForecastBatchFromJson, we ignore the datetime values embedded in
+             * the JSON and assume that the days are returned in-order.
+             */
+            long dateTimeMillis = normalizedUtcStartDay
+                    + SunshineDateUtils.DAY_IN_MILLIS * forecast.size();
+
+            readDayForecast(reader, dateTimeMillis, forecast);
+        }
+        reader.endArray();
+
+        return forecast;
+    }
+
+    /**
+     * Reads a single day of the forecast. The day's fields are kept in primitives until the
+     * whole object has been read and are only then added to the forecast, in the same way (and
+     * with the same truncation of the humidity) as getForecastBatchFromJson does.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDayForecast(JsonReader reader, long dateTimeMillis,
+                                        ForecastBatch forecast) throws IOException {
+
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+
+        int weatherId = 0;
+
+        int fieldsRead = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                fieldsRead |= DAY_HAS_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                /* JSONObject#getInt truncates fractional values, so we do the same */
+                humidity = (int) reader.nextDouble();
+                fieldsRead |= DAY_HAS_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                fieldsRead |= DAY_HAS_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                fieldsRead |= DAY_HAS_WIND_DIRECTION;
+            } else if (OWM_WEATHER.equals(name)) {
+                /* "weather" is an array, but only its first element is of any interest to us */
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherId = (int) reader.nextDouble();
+                            fieldsRead |= DAY_HAS_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                        fieldsRead |= DAY_HAS_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                        fieldsRead |= DAY_HAS_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (fieldsRead != DAY_HAS_ALL_FIELDS) {
+            throw new IOException("Incomplete day in forecast " + OWM_LIST);
         }
 
-        return weatherContentValues;
+        forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
+
+    /**
+     * Reads everything that is left in the given Reader into a String.
+     */
+    private static String readFully(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        int charsRead;
+        while ((charsRead = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, charsRead);
+        }
+        return builder.toString();
     }
-}
\ No newline at end of file
+}
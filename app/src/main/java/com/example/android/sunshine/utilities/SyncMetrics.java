@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where the time of our forecast syncs goes, and how they end, since the app's process was
+ * started. Each stage of a sync records how long it took into a histogram, and failures are
+ * counted by the stage they happened in and the exception that was thrown.
+ * <p>
+ * Recording never takes a lock, so it can be done from any thread without slowing a sync
+ * down. Like {@link NetworkStats}, these numbers are only kept in memory and are meant for
+ * measuring. {@link #dump(PrintWriter)} prints all of them. While Sunshine's main screen is
+ * open, run
+ * <pre>
+ *     adb shell dumpsys activity top
+ * </pre>
+ * and look for "Sync metrics".
+ */
+public final class SyncMetrics {
+
+    /* Turning the location into the URL of the forecast */
+    public static final int STAGE_URL_BUILD = 0;
+
+    /* Opening the connection to the server, including DNS and the TLS handshake */
+    public static final int STAGE_CONNECT = 1;
+
+    /* Waiting for the response headers, once the request has been sent */
+    public static final int STAGE_FIRST_BYTE = 2;
+
+    /* Waiting for the body to come over the wire */
+    public static final int STAGE_DOWNLOAD = 3;
+
+    /* Decompressing and parsing the body, everything the handler did that wasn't waiting */
+    public static final int STAGE_PARSE = 4;
+
+    /* Storing the forecast in the database */
+    public static final int STAGE_DB_WRITE = 5;
+
+    /* Handing the forecast to the wear device */
+    public static final int STAGE_WEAR_PUSH = 6;
+
+    /* Deciding whether to notify the user, and doing so */
+    public static final int STAGE_NOTIFICATION = 7;
+
+    /* The whole sync, from start to end */
+    public static final int STAGE_TOTAL = 8;
+
+    /*
+     * What became of a forecast handed to the wear device: sent right away as an urgent data
+     * item, sent once the coalescing delay was over, not sent because the watch already has it,
+     * replaced by a newer one before it was sent, or failed to send.
+     */
+    public static final String WEAR_PUSH_URGENT = "urgent";
+    public static final String WEAR_PUSH_SENT = "sent";
+    public static final String WEAR_PUSH_UNCHANGED = "unchanged";
+    public static final String WEAR_PUSH_COALESCED = "coalesced";
+    public static final String WEAR_PUSH_FAILED = "failed";
+
+    private static final String[] STAGE_NAMES = {
+            "url build", "connect", "first byte", "download", "parse", "db write",
+            "wear push", "notification", "total"
+    };
+
+    private static final LatencyHistogram[] sStageLatencies =
+            new LatencyHistogram[STAGE_NAMES.length];
+
+    static {
+        for (int stage = 0; stage < sStageLatencies.length; stage++) {
+            sStageLatencies[stage] = new LatencyHistogram();
+        }
+    }
+
+    /* The forecast days that were stored, and the rows that storing them touched */
+    private static final AtomicLong sDaysStored = new AtomicLong();
+    private static final AtomicLong sRowsTouched = new AtomicLong();
+
+    /* How syncs ended, by outcome, and why they failed, by stage and exception */
+    private static final ConcurrentMap<String, AtomicLong> sOutcomes = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, AtomicLong> sFailures = new ConcurrentHashMap<>();
+
+    /* What became of the forecasts handed to the wear device, by WEAR_PUSH constant */
+    private static final ConcurrentMap<String, AtomicLong> sWearPushes = new ConcurrentHashMap<>();
+
+    private SyncMetrics() {
+    }
+
+    /**
+     * Records how long a stage took, from the given start until now.
+     *
+     * @param stage      One of the STAGE constants
+     * @param startNanos The value of {@link System#nanoTime()} when the stage started
+     */
+    public static void recordStage(int stage, long startNanos) {
+        recordStageNanos(stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param stage One of the STAGE constants
+     * @param nanos How long the stage took
+     */
+    public static void recordStageNanos(int stage, long nanos) {
+        sStageLatencies[stage].record(nanos);
+    }
+
+    /**
+     * @param days        The number of forecast days that were stored
+     * @param rowsTouched The number of rows that were inserted, updated or deleted to do that
+     */
+    public static void recordStored(int days, int rowsTouched) {
+        sDaysStored.addAndGet(days);
+        sRowsTouched.addAndGet(rowsTouched);
+    }
+
+    /**
+     * @param outcome A short name of how the sync ended, like "success"
+     */
+    public static void recordOutcome(String outcome) {
+        increment(sOutcomes, outcome);
+    }
+
+    /**
+     * @param stage The STAGE constant of the stage that failed
+     * @param cause What made it fail
+     */
+    public static void recordFailure(int stage, Throwable cause) {
+        recordFailure(stage, cause.getClass().getName());
+    }
+
+    /**
+     * @param stage  The STAGE constant of the stage that failed
+     * @param reason A short description of the failure, for failures without an exception
+     */
+    public static void recordFailure(int stage, String reason) {
+        increment(sFailures, STAGE_NAMES[stage] + ": " + reason);
+    }
+
+    /**
+     * @param result One of the WEAR_PUSH constants
+     */
+    public static void recordWearPush(String result) {
+        increment(sWearPushes, result);
+    }
+
+    /**
+     * Prints every metric, one per line.
+     *
+     * @param writer Where to print them, for example the writer handed to a dump method
+     */
+    public static void dump(PrintWriter writer) {
+        writer.println("Sync metrics:");
+        writer.println("  outcomes: " + formatCounts(sOutcomes));
+        writer.println("  failures: " + formatCounts(sFailures));
+        writer.println("  days stored: " + sDaysStored.get()
+                + ", rows touched: " + sRowsTouched.get());
+        writer.println("  requests: " + NetworkStats.getSummary());
+        writer.println("  wear pushes: " + formatCounts(sWearPushes));
+        writer.println("  stage latencies, in ms:");
+        for (int stage = 0; stage < sStageLatencies.length; stage++) {
+            writer.println("    " + STAGE_NAMES[stage] + ": " + sStageLatencies[stage]);
+        }
+    }
+
+    /**
+     * Forgets everything that was recorded. Only meant for tests.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : sStageLatencies) {
+            histogram.reset();
+        }
+        sDaysStored.set(0);
+        sRowsTouched.set(0);
+        sOutcomes.clear();
+        sFailures.clear();
+        sWearPushes.clear();
+    }
+
+    /**
+     * @param stage One of the STAGE constants
+     * @return The number of times the stage was recorded
+     */
+    public static long getStageCount(int stage) {
+        return sStageLatencies[stage].mCount.get();
+    }
+
+    /**
+     * @param outcome A name passed to {@link #recordOutcome(String)}
+     * @return The number of syncs that ended that way
+     */
+    public static long getOutcomeCount(String outcome) {
+        AtomicLong count = sOutcomes.get(outcome);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param result One of the WEAR_PUSH constants
+     * @return The number of forecasts handed to the wear device that ended that way
+     */
+    public static long getWearPushCount(String result) {
+        AtomicLong count = sWearPushes.get(result);
+        return count == null ? 0 : count.get();
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicLong> counts, String key) {
+        AtomicLong count = counts.get(key);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = counts.putIfAbsent(key, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static String formatCounts(Map<String, AtomicLong> counts) {
+        return counts.isEmpty() ? "none" : new TreeMap<>(counts).toString();
+    }
+
+    /**
+     * Counts latencies in buckets that double in width: under 1 ms, under 2 ms, under 4 ms and so
+     * on, up to a last bucket for everything from about 65 seconds on. That is coarse, but it
+     * takes a fixed 21 longs and tells a sync that got slower apart from one that didn't.
+     */
+    private static final class LatencyHistogram {
+
+        private static final int BUCKET_COUNT = 18;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+            /* 0 ms goes in bucket 0, 1 ms in bucket 1, 2 to 3 ms in bucket 2 and so on */
+            int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(millis));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(nanos);
+
+            long max = mMaxNanos.get();
+            while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+                max = mMaxNanos.get();
+            }
+        }
+
+        /**
+         * @param percentile Between 0 and 100
+         * @return The upper bound, in ms, of the bucket the given percentile falls in
+         */
+        long getPercentileMillis(int percentile) {
+            long count = mCount.get();
+            long rank = (count * percentile + 99) / 100;
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                seen += mBuckets.get(bucket);
+                if (seen >= rank) {
+                    return bucket == BUCKET_COUNT - 1
+                            ? TimeUnit.NANOSECONDS.toMillis(mMaxNanos.get())
+                            : 1L << bucket;
+                }
+            }
+            return TimeUnit.NANOSECONDS.toMillis(mMaxNanos.get());
+        }
+
+        void reset() {
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                mBuckets.set(bucket, 0);
+            }
+            mCount.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+        }
+
+        @Override
+        public String toString() {
+            long count = mCount.get();
+            if (count == 0) {
+                return "no samples";
+            }
+            return count + " samples"
+                    + ", mean " + TimeUnit.NANOSECONDS.toMillis(mTotalNanos.get() / count)
+                    + ", p50 <= " + getPercentileMillis(50)
+                    + ", p95 <= " + getPercentileMillis(95)
+                    + ", max " + TimeUnit.NANOSECONDS.toMillis(mMaxNanos.get());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Draws the watch face frame after frame, the way the engine does within a minute, and checks
+ * that no frame allocates anything once the first one has prepared the clock text and the
+ * layer.
+ * <p>
+ * Allocations are counted by the runtime, on this thread only, which is the thread that draws.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWatchFaceAllocations {
+
+    private static final long MINUTE_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /* 100 frames, half a second apart, all fall within the minute of the warm-up frame */
+    private static final int FRAME_COUNT = 100;
+    private static final long FRAME_INTERVAL_MILLIS = 500;
+
+    private static final int SURFACE_SIZE = 320;
+
+    private WatchFaceRenderer mRenderer;
+    private Bitmap mScreen;
+    private Canvas mCanvas;
+    private final Rect mBounds = new Rect(0, 0, SURFACE_SIZE, SURFACE_SIZE);
+
+    @Before
+    public void setUp() {
+        mRenderer = new WatchFaceRenderer(InstrumentationRegistry.getTargetContext());
+        mRenderer.setSurfaceSize(SURFACE_SIZE, SURFACE_SIZE);
+        mScreen = Bitmap.createBitmap(SURFACE_SIZE, SURFACE_SIZE, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mScreen);
+
+        /* Weather to draw, so that the layer has the temperatures and the icon on it */
+        WeatherSnapshot.publish("25°", "16°", 800);
+    }
+
+    @After
+    public void tearDown() {
+        mRenderer.release();
+        mScreen.recycle();
+    }
+
+    @Test
+    public void testFullFramesDoNotAllocate() {
+        assertNoAllocationsAfterWarmUp(false);
+    }
+
+    @Test
+    public void testPartialFramesDoNotAllocate() {
+        assertNoAllocationsAfterWarmUp(true);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void assertNoAllocationsAfterWarmUp(boolean partial) {
+        long minuteStart = System.currentTimeMillis() / MINUTE_IN_MILLIS * MINUTE_IN_MILLIS;
+
+        /* The first frame prepares the clock text, creates the layer and draws it */
+        mRenderer.draw(mCanvas, mBounds, minuteStart, false);
+        assertTrue("Every other frame of the minute should only need the time redrawn",
+                mRenderer.canDrawTimeOnly(minuteStart + FRAME_COUNT * FRAME_INTERVAL_MILLIS));
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int frame = 1; frame <= FRAME_COUNT; frame++) {
+                long now = minuteStart + frame * FRAME_INTERVAL_MILLIS;
+                if (partial) {
+                    /* Just like the canvas of the surface, locked to the time's bounds */
+                    mCanvas.save();
+                    mCanvas.clipRect(mRenderer.getTimeBounds());
+                    mRenderer.draw(mCanvas, mBounds, now, true);
+                    mCanvas.restore();
+                } else {
+                    mRenderer.draw(mCanvas, mBounds, now, false);
+                }
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        assertEquals("Objects allocated over " + FRAME_COUNT + " frames",
+                0,
+                Debug.getThreadAllocCount());
+    }
+}
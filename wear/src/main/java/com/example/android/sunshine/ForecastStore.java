@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last forecast the phone sent, in memory and in a file, and publishes the weather of
+ * the current day from it as a {@link WeatherSnapshot}. Because the forecast covers the coming
+ * days, the watch face moves on to the next day's weather at midnight by itself, even while the
+ * phone is out of reach, and shows the weather again right after its process is restarted.
+ * <p>
+ * The watch face never waits for the store: it asks for today's weather with
+ * {@link #publishToday()}, which reads the file on the store's own thread, and draws whatever
+ * snapshot was published last.
+ */
+final class ForecastStore {
+
+    private static final String TAG = ForecastStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.bin";
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static ForecastStore sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+
+    /* Created on first use, getFilesDir may have to create the directory */
+    @Nullable
+    private File mFile;
+
+    @Nullable
+    private PackedForecast mForecast;
+    private boolean mLoaded;
+
+    /* The date of the day that was published last, so that each day is only published once */
+    private long mPublishedDate = -1;
+
+    private final Runnable mPublishToday = new Runnable() {
+        @Override
+        public void run() {
+            publishTodayNow();
+        }
+    };
+
+    private ForecastStore(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    static synchronized ForecastStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Replaces the stored forecast with one that was just received from the phone and
+     * publishes the current day's weather from it. This writes the file, so it must not be
+     * called on the UI thread; the listener service receives data on a background thread.
+     *
+     * @param packed The forecast, as the phone packed it
+     */
+    synchronized void update(byte[] packed) {
+        PackedForecast forecast = PackedForecast.unpack(packed);
+        if (forecast == null) {
+            Log.w(TAG, "Ignoring a forecast we can't read");
+            return;
+        }
+
+        mForecast = forecast;
+        mLoaded = true;
+        mPublishedDate = -1;
+        write(packed);
+        publishTodayNow();
+    }
+
+    /**
+     * Publishes the current day's weather on the store's own thread, unless it has already been
+     * published. Call this whenever the day may have changed. Returns right away, even the first
+     * time, when the forecast stored by an earlier process has to be read.
+     */
+    void publishToday() {
+        mHandler.removeCallbacks(mPublishToday);
+        mHandler.post(mPublishToday);
+    }
+
+    private synchronized void publishTodayNow() {
+        if (!mLoaded) {
+            mForecast = PackedForecast.unpack(read());
+            mLoaded = true;
+        }
+        if (mForecast == null) {
+            return;
+        }
+
+        long today = getNormalizedDateForToday();
+        if (today == mPublishedDate) {
+            return;
+        }
+
+        int day = mForecast.indexOfDate(today);
+        if (day < 0) {
+            /* The forecast has run out, keep showing the last day we had */
+            return;
+        }
+
+        mPublishedDate = today;
+        WeatherSnapshot.publish(
+                mContext.getString(R.string.temperature_format, mForecast.getMaxTemp(day)),
+                mContext.getString(R.string.temperature_format, mForecast.getMinTemp(day)),
+                mForecast.getWeatherId(day));
+    }
+
+    /**
+     * The phone dates each day at UTC midnight of that date in its own time zone. We assume the
+     * watch is in the same time zone, and do the same for today.
+     */
+    private static long getNormalizedDateForToday() {
+        long now = System.currentTimeMillis();
+        long localNow = now + TimeZone.getDefault().getOffset(now);
+        return localNow - localNow % DAY_IN_MILLIS;
+    }
+
+    @Nullable
+    private byte[] read() {
+        File file = getFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read the stored forecast", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so that a half-written forecast is never read back.
+     */
+    private void write(byte[] packed) {
+        File file = getFile();
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(packed);
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't store the forecast", e);
+            tempFile.delete();
+        }
+    }
+
+    private File getFile() {
+        if (mFile == null) {
+            mFile = new File(mContext.getFilesDir(), FILE_NAME);
+        }
+        return mFile;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A histogram of how long the watch face takes to draw its frames. Recording a frame only
+ * increments a few counters, so it can stay switched on while measuring on a real watch without
+ * skewing what it measures.
+ * <p>
+ * Frame times are counted in buckets of {@link #BUCKET_NANOS}, so percentiles are only accurate
+ * to that. Frames slower than the last bucket are all counted in one overflow bucket, whose
+ * percentiles are reported as the slowest frame seen.
+ */
+final class FrameStats {
+
+    /* A frame is over budget when it takes longer than one refresh of a 60Hz display */
+    static final long DEFAULT_BUDGET_NANOS = TimeUnit.MICROSECONDS.toNanos(16667);
+
+    private static final long BUCKET_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+
+    /* 200 buckets of 0.25ms cover frames of up to 50ms, plus one bucket for anything slower */
+    private static final int BUCKET_COUNT = 200;
+
+    private final long mBudgetNanos;
+    private final int[] mBuckets = new int[BUCKET_COUNT + 1];
+
+    private int mFrameCount;
+    private int mPartialFrameCount;
+    private int mOverBudgetCount;
+    private long mMaxNanos;
+
+    FrameStats() {
+        this(DEFAULT_BUDGET_NANOS);
+    }
+
+    /**
+     * @param budgetNanos How long a frame may take before it is counted as over budget
+     */
+    FrameStats(long budgetNanos) {
+        mBudgetNanos = budgetNanos;
+    }
+
+    /**
+     * Counts a frame that was drawn.
+     *
+     * @param drawNanos How long drawing the frame took
+     * @param partial   Whether only part of the watch face was drawn
+     */
+    void recordFrame(long drawNanos, boolean partial) {
+        int bucket = (int) Math.min(drawNanos / BUCKET_NANOS, BUCKET_COUNT);
+        mBuckets[bucket]++;
+
+        mFrameCount++;
+        if (partial) {
+            mPartialFrameCount++;
+        }
+        if (drawNanos > mBudgetNanos) {
+            mOverBudgetCount++;
+        }
+        if (drawNanos > mMaxNanos) {
+            mMaxNanos = drawNanos;
+        }
+    }
+
+    int getFrameCount() {
+        return mFrameCount;
+    }
+
+    int getPartialFrameCount() {
+        return mPartialFrameCount;
+    }
+
+    int getOverBudgetCount() {
+        return mOverBudgetCount;
+    }
+
+    /**
+     * @param percentile The percentile to return, from 1 to 100
+     * @return The time within which the given percentage of frames were drawn, rounded up to the
+     * end of its bucket, or 0 if no frames were recorded
+     */
+    long getPercentileNanos(int percentile) {
+        if (mFrameCount == 0) {
+            return 0;
+        }
+
+        /* The rank of the frame we're looking for, counting from 1 */
+        long rank = Math.max(1, ((long) mFrameCount * percentile + 99) / 100);
+        long framesSoFar = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            framesSoFar += mBuckets[bucket];
+            if (framesSoFar >= rank) {
+                return Math.min((bucket + 1) * BUCKET_NANOS, mMaxNanos);
+            }
+        }
+        return mMaxNanos;
+    }
+
+    void reset() {
+        Arrays.fill(mBuckets, 0);
+        mFrameCount = 0;
+        mPartialFrameCount = 0;
+        mOverBudgetCount = 0;
+        mMaxNanos = 0;
+    }
+
+    /**
+     * @return A one line summary of the frames recorded so far, handy for logging
+     */
+    String getSummary() {
+        return "frames: " + mFrameCount
+                + " (" + mPartialFrameCount + " partial)"
+                + ", p50: " + toMicros(getPercentileNanos(50)) + " us"
+                + ", p95: " + toMicros(getPercentileNanos(95)) + " us"
+                + ", p99: " + toMicros(getPercentileNanos(99)) + " us"
+                + ", max: " + toMicros(mMaxNanos) + " us"
+                + ", over budget: " + mOverBudgetCount;
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
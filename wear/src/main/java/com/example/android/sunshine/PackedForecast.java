@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.support.annotation.Nullable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A forecast of several days as the phone sends it, one primitive array per field. See
+ * WearForecast in the app for the format, the two must be changed together.
+ */
+final class PackedForecast {
+
+    private static final int FORMAT_VERSION = 1;
+
+    /* Far more days than the phone ever sends, anything beyond this is not a forecast */
+    private static final int MAX_DAYS = 366;
+
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final int[] mMaxTemps;
+    private final int[] mMinTemps;
+
+    private PackedForecast(long[] dates, int[] weatherIds, int[] maxTemps, int[] minTemps) {
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mMaxTemps = maxTemps;
+        mMinTemps = minTemps;
+    }
+
+    /**
+     * @param packed A forecast packed by the phone
+     * @return The forecast, or null if it isn't one we can read
+     */
+    @Nullable
+    static PackedForecast unpack(@Nullable byte[] packed) {
+        if (packed == null) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(packed);
+        try {
+            if (buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int days = buffer.getInt();
+            if (days < 0 || days > MAX_DAYS) {
+                return null;
+            }
+
+            long[] dates = new long[days];
+            int[] weatherIds = new int[days];
+            int[] maxTemps = new int[days];
+            int[] minTemps = new int[days];
+            buffer.asLongBuffer().get(dates);
+            buffer.position(buffer.position() + days * 8);
+            buffer.asIntBuffer().get(weatherIds);
+            buffer.position(buffer.position() + days * 4);
+            buffer.asIntBuffer().get(maxTemps);
+            buffer.position(buffer.position() + days * 4);
+            buffer.asIntBuffer().get(minTemps);
+            return new PackedForecast(dates, weatherIds, maxTemps, minTemps);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    int size() {
+        return mDates.length;
+    }
+
+    /**
+     * @param normalizedUtcDate The normalized date of the day to find
+     * @return The index of the day, or -1 if the forecast doesn't include that date
+     */
+    int indexOfDate(long normalizedUtcDate) {
+        for (int day = 0; day < mDates.length; day++) {
+            if (mDates[day] == normalizedUtcDate) {
+                return day;
+            }
+        }
+        return -1;
+    }
+
+    long getDate(int day) {
+        return mDates[day];
+    }
+
+    int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    int getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    int getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+}
@@ -20,39 +20,29 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.support.annotation.Nullable;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.DateFormat;
+import android.util.Log;
 import android.view.SurfaceHolder;
 
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Locale;
-import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. On devices with
  * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
+ * <p>
+ * The engine only decides when to draw and how much; {@link WatchFaceRenderer} does the drawing.
  */
 public class SunshineWatchfaceService extends CanvasWatchFaceService {
 
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
-    private static final Typeface BOLD_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
+    private static final String TAG = SunshineWatchfaceService.class.getSimpleName();
 
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
@@ -65,13 +55,13 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
-    static String mHighTemperature;
-    static String mLowTemperature;
-
-    @Nullable
-    static Bitmap mWeatherDrawable;
+    /**
+     * Handler message id for drawing a new {@link WeatherSnapshot}.
+     */
+    private static final int MSG_WEATHER_CHANGED = 1;
 
-    static boolean mHasWeatherData = false;
+    /* How many frames are drawn between logging the frame times, when they are recorded */
+    private static final int FRAME_STATS_LOG_INTERVAL = 60;
 
     @Override
     public Engine onCreateEngine() {
@@ -94,6 +84,9 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
                     case MSG_UPDATE_TIME:
                         engine.handleUpdateTimeMessage();
                         break;
+                    case MSG_WEATHER_CHANGED:
+                        engine.handleWeatherChangedMessage();
+                        break;
                 }
             }
         }
@@ -104,37 +97,36 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
 
-        Paint mBackgroundPaint;
-        Paint mTimeTextPaint;
-        Paint mDateTextPaint;
-        Paint mHighTemperatureTextPaint;
-        Paint mLowTemperatureTextPaint;
-        Paint mDividerPaint;
+        WatchFaceRenderer mRenderer;
+
+        /* Called on whichever thread published the snapshot, so we hop over to our handler */
+        final WeatherSnapshot.OnWeatherChangedListener mWeatherListener =
+                new WeatherSnapshot.OnWeatherChangedListener() {
+                    @Override
+                    public void onWeatherChanged(WeatherSnapshot snapshot) {
+                        mUpdateTimeHandler.sendEmptyMessage(MSG_WEATHER_CHANGED);
+                    }
+                };
 
-        boolean mAmbient;
-        boolean showHoursSeperator;
+        /*
+         * Within a minute, handleUpdateTimeMessage only locks the part of the surface where the
+         * time is, and onDraw then draws a partial frame.
+         */
+        final Rect mDirtyRect = new Rect();
+        boolean mDrawingPartialFrame;
 
-        Calendar mCalendar;
+        /* Only created if R.bool.record_frame_times is set */
+        @Nullable
+        FrameStats mFrameStats;
 
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mRenderer.resetClock();
                 invalidate();
             }
         };
 
-        private float lineHeight;
-        private float marginWeather;
-        private float dividerMargin;
-        private float dividerWidth;
-
-        /**
-         * Whether the display supports fewer bits for each color in ambient mode. When true, we
-         * disable anti-aliasing in ambient mode.
-         */
-        boolean mLowBitAmbient;
-
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
@@ -146,52 +138,38 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
                     .setAcceptsTapEvents(true)
                     .build());
 
-            Resources resources = SunshineWatchfaceService.this.getResources();
-
-            dividerMargin = resources.getDimension(R.dimen.divider_margin);
-            lineHeight = resources.getDimension(R.dimen.digital_line_height);
-            marginWeather = resources.getDimension(R.dimen.margin_weather);
-            dividerWidth = resources.getDimension(R.dimen.divider_width);
-
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(resources.getColor(R.color.background));
-
-            mTimeTextPaint = new Paint();
-            mTimeTextPaint = createTextPaint(resources.getColor(R.color.digital_text), BOLD_TYPEFACE);
-            mTimeTextPaint.setTextSize(resources.getDimension(R.dimen.time_text_size));
-
-            mDateTextPaint = new Paint();
-            mDateTextPaint = createTextPaint(resources.getColor(R.color.light_text), NORMAL_TYPEFACE);
-            mDateTextPaint.setTextSize(resources.getDimension(R.dimen.date_text_size));
+            mRenderer = new WatchFaceRenderer(SunshineWatchfaceService.this);
 
-            mDividerPaint = new Paint();
-            mDividerPaint.setColor(resources.getColor(R.color.light_text));
-
-            mHighTemperatureTextPaint = new Paint();
-            mHighTemperatureTextPaint = createTextPaint(resources.getColor(R.color.digital_text), BOLD_TYPEFACE);
-            mHighTemperatureTextPaint.setTextSize(resources.getDimension(R.dimen.weather_text_size));
-
-            mLowTemperatureTextPaint = new Paint();
-            mLowTemperatureTextPaint = createTextPaint(resources.getColor(R.color.light_text), NORMAL_TYPEFACE);
-            mLowTemperatureTextPaint.setTextSize(resources.getDimension(R.dimen.weather_text_size));
+            if (getResources().getBoolean(R.bool.record_frame_times)) {
+                mFrameStats = new FrameStats();
+            }
 
-            mCalendar = Calendar.getInstance();
-        }
+            WeatherSnapshot.addListener(mWeatherListener);
 
-        private Paint createTextPaint(int textColor, Typeface typeface) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(typeface);
-            paint.setAntiAlias(true);
-            return paint;
+            /*
+             * Show the forecast we stored before, even if the phone can't be reached right now.
+             * The store reads it on its own thread and publishes it as a snapshot, which our
+             * listener picks up.
+             */
+            ForecastStore.getInstance(SunshineWatchfaceService.this).publishToday();
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            WeatherSnapshot.removeListener(mWeatherListener);
+            mUpdateTimeHandler.removeMessages(MSG_WEATHER_CHANGED);
+            mRenderer.release();
             super.onDestroy();
         }
 
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            // onDraw creates a layer of the new size the next time it draws.
+            mRenderer.setSurfaceSize(width, height);
+        }
+
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
@@ -199,8 +177,9 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
             if (visible) {
                 registerReceiver();
 
-                // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                // Update time zone in case it changed while we weren't visible. The locale or
+                // the 12/24 hour setting may have changed as well.
+                mRenderer.resetClock();
                 invalidate();
             } else {
                 unregisterReceiver();
@@ -250,7 +229,7 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
-            mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mRenderer.setLowBitAmbient(properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false));
         }
 
         @Override
@@ -262,11 +241,7 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
-            if (mAmbient != inAmbientMode) {
-                mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTimeTextPaint.setAntiAlias(!inAmbientMode);
-                }
+            if (mRenderer.setAmbient(inAmbientMode)) {
                 invalidate();
             }
 
@@ -278,72 +253,71 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
 
-            long now = System.currentTimeMillis();
-
-            mCalendar.setTimeInMillis(now);
-
-            // Draw the background.
-            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-
-
-            float centerX = bounds.width() / 2;
-
-
-            boolean is24Hour = DateFormat.is24HourFormat(SunshineWatchfaceService.this);
+            long drawStart = mFrameStats != null ? System.nanoTime() : 0;
 
-
-            SimpleDateFormat simpleDateFormat;
-
-            if (is24Hour) {
-                simpleDateFormat = new SimpleDateFormat(showHoursSeperator ? "HH:mm" : "HH mm", Locale.getDefault());
-            } else {
-                simpleDateFormat = new SimpleDateFormat(showHoursSeperator ? "hh:mm a" : "hh mm", Locale.getDefault());
+            if (mRenderer.draw(canvas, bounds, System.currentTimeMillis(), mDrawingPartialFrame)) {
+                // The minute changed while we were only redrawing the time, and the new time
+                // may not fit in the old bounds.
+                invalidate();
             }
 
-            showHoursSeperator = !showHoursSeperator;
-
-            String timeString = simpleDateFormat.format(mCalendar.getTime());
-
-            float x = centerX - (mTimeTextPaint.measureText(timeString) / 2);
-            //drawing the timeString
-            canvas.drawText(timeString, x, bounds.exactCenterY() - lineHeight, mTimeTextPaint);
-
-            // Drawing Day , Date , WeatherIcon , temperature
-            simpleDateFormat = new SimpleDateFormat("EE MM dd yyyy", Locale.getDefault());
-            String dayNDate = simpleDateFormat.format(mCalendar.getTime());
-            x = centerX - (mDateTextPaint.measureText(dayNDate) / 2);
-
-            canvas.drawText(
-                    dayNDate,
-                    x, bounds.exactCenterY(), mDateTextPaint);
-
-            float yDivider = bounds.exactCenterY() + lineHeight / 2;
-
-            canvas.drawLine(centerX - dividerWidth / 2, yDivider, centerX + dividerWidth / 2, yDivider, mDividerPaint);
-
-            if (mHasWeatherData) {
-
-                float yWeather = yDivider + dividerMargin + lineHeight;
-
-                float xHighTemp = centerX - mHighTemperatureTextPaint.measureText(mHighTemperature) / 2;
-                canvas.drawText(mHighTemperature, xHighTemp, yWeather, mHighTemperatureTextPaint);
+            if (mFrameStats != null) {
+                recordFrame(System.nanoTime() - drawStart);
+            }
+        }
 
-                float xLowTemp = xHighTemp + mHighTemperatureTextPaint.measureText(mHighTemperature);
-                canvas.drawText(mLowTemperature, xLowTemp, yWeather, mLowTemperatureTextPaint);
+        private void recordFrame(long drawNanos) {
+            mFrameStats.recordFrame(drawNanos, mDrawingPartialFrame);
+            if (mFrameStats.getFrameCount() % FRAME_STATS_LOG_INTERVAL == 0) {
+                Log.d(TAG, "Frame times: " + mFrameStats.getSummary());
+            }
+        }
 
-                if (mWeatherDrawable != null) {
-                    float xWeather = xHighTemp - mWeatherDrawable.getWidth() - marginWeather;
-                    canvas.drawBitmap(mWeatherDrawable, xWeather, yDivider + dividerMargin, new Paint());
-                }
+        /**
+         * Draws a frame into just the part of the surface where the time is, leaving the rest of
+         * the previous frame on screen.
+         *
+         * @return Whether the frame was drawn, false if the surface couldn't be locked
+         */
+        private boolean redrawTimeOnly() {
+            SurfaceHolder holder = getSurfaceHolder();
+            mDirtyRect.set(mRenderer.getTimeBounds());
+            /*
+             * The canvas is clipped to the dirty rect, which the surface may grow to more than we
+             * asked for. onDraw draws the whole watch face, so whatever it grows to is covered.
+             */
+            Canvas canvas = holder.lockCanvas(mDirtyRect);
+            if (canvas == null) {
+                return false;
+            }
+            mDrawingPartialFrame = true;
+            try {
+                onDraw(canvas, mRenderer.getSurfaceBounds());
+            } finally {
+                mDrawingPartialFrame = false;
+                holder.unlockCanvasAndPost(canvas);
             }
+            return true;
+        }
 
+        /**
+         * Redraws the watch face if the weather changed since the layer was drawn. Several
+         * snapshots published in a row only cause one redraw.
+         */
+        private void handleWeatherChangedMessage() {
+            if (mRenderer.isWeatherOutdated()) {
+                invalidate();
+            }
         }
 
         /**
-         * Handle updating the time periodically in interactive mode.
+         * Handle updating the time periodically in interactive mode. Within a minute only the
+         * time is redrawn, see redrawTimeOnly.
          */
         private void handleUpdateTimeMessage() {
-            invalidate();
+            if (!mRenderer.canDrawTimeOnly(System.currentTimeMillis()) || !redrawTimeOnly()) {
+                invalidate();
+            }
             if (shouldTimerBeRunning()) {
                 long timeMs = System.currentTimeMillis();
                 long delayMs = INTERACTIVE_UPDATE_RATE_MS
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.support.annotation.Nullable;
+import android.text.format.DateFormat;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws Sunshine's watch face: the time, the date and today's weather. The watch face engine
+ * decides when to draw and on which canvas; everything that is drawn, and everything that is
+ * prepared so that drawing a frame doesn't allocate, lives here. That keeps the drawing
+ * independent of the wallpaper service, so that it can be driven frame by frame from tests.
+ * <p>
+ * A renderer must only be used from one thread, the engine's.
+ */
+final class WatchFaceRenderer {
+
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    private static final Typeface BOLD_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
+
+    private static final long MINUTE_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The number of characters the time and the date can have. Anything longer is cut off, but
+     * no locale comes anywhere near this.
+     */
+    private static final int CLOCK_TEXT_CAPACITY = 32;
+
+    private static final char TIME_SEPARATOR = ':';
+
+    private final Context mContext;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mTimeTextPaint;
+    private final Paint mDateTextPaint;
+    private final Paint mHighTemperatureTextPaint;
+    private final Paint mLowTemperatureTextPaint;
+    private final Paint mDividerPaint;
+
+    private final Paint mBitmapPaint;
+    private final WeatherIcons mWeatherIcons;
+
+    private final float lineHeight;
+    private final float marginWeather;
+    private final float dividerMargin;
+    private final float dividerWidth;
+
+    /*
+     * Everything but the time only changes when new weather data arrives, the date changes or
+     * we switch in or out of ambient mode. It is drawn into this bitmap by drawStaticLayer
+     * whenever one of those happens, and every frame just copies it to the screen and draws
+     * the time on top.
+     */
+    @Nullable
+    private Bitmap mLayerBitmap;
+    @Nullable
+    private Canvas mLayerCanvas;
+    private boolean mLayerDirty = true;
+    private long mLayerWeatherVersion = -1;
+
+    /*
+     * Within a minute, the only thing that changes from one second to the next is the
+     * separator of the time. The engine then only redraws mTimeBounds, where the time was last
+     * drawn, rather than invalidating the whole surface.
+     */
+    private final Rect mSurfaceBounds = new Rect();
+    private final Rect mTimeBounds = new Rect();
+    private boolean mTimeBoundsValid;
+    private final float mTimeTop;
+    private final float mTimeBottom;
+
+    private boolean mAmbient;
+
+    /**
+     * Whether the display supports fewer bits for each color in ambient mode. When true, we
+     * disable anti-aliasing in ambient mode.
+     */
+    private boolean mLowBitAmbient;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    /*
+     * Everything draw needs to draw the time and date is prepared here once a minute, by
+     * updateClockText, so that drawing a frame doesn't allocate anything. The time is kept
+     * with the separator between hours and minutes at mTimeSeparatorIndex, which draw blanks
+     * out every other second.
+     */
+    private SimpleDateFormat mTimeFormat;
+    private SimpleDateFormat mDateFormat;
+    private Locale mFormatLocale;
+    private boolean mIs24Hour;
+
+    private final char[] mTimeChars = new char[CLOCK_TEXT_CAPACITY];
+    private int mTimeLength;
+    private int mTimeSeparatorIndex = -1;
+    private float mTimeWidth;
+
+    private final char[] mDateChars = new char[CLOCK_TEXT_CAPACITY];
+    private int mDateLength;
+    private float mDateWidth;
+
+    /* The minute since the epoch the clock text was last prepared for, or -1 to force it */
+    private long mClockTextMinute = -1;
+
+    /* The temperatures whose widths were last measured, compared by reference on purpose */
+    private String mDateText;
+    private String mMeasuredHighTemperature;
+    private String mMeasuredLowTemperature;
+    private float mHighTemperatureWidth;
+
+    /**
+     * @param context Used for the watch face's resources and the user's 12/24 hour setting
+     */
+    WatchFaceRenderer(Context context) {
+        mContext = context;
+
+        Resources resources = context.getResources();
+
+        dividerMargin = resources.getDimension(R.dimen.divider_margin);
+        lineHeight = resources.getDimension(R.dimen.digital_line_height);
+        marginWeather = resources.getDimension(R.dimen.margin_weather);
+        dividerWidth = resources.getDimension(R.dimen.divider_width);
+
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(resources.getColor(R.color.background));
+
+        mTimeTextPaint = createTextPaint(resources.getColor(R.color.digital_text), BOLD_TYPEFACE);
+        mTimeTextPaint.setTextSize(resources.getDimension(R.dimen.time_text_size));
+
+        mDateTextPaint = createTextPaint(resources.getColor(R.color.light_text), NORMAL_TYPEFACE);
+        mDateTextPaint.setTextSize(resources.getDimension(R.dimen.date_text_size));
+
+        mDividerPaint = new Paint();
+        mDividerPaint.setColor(resources.getColor(R.color.light_text));
+
+        mHighTemperatureTextPaint = createTextPaint(resources.getColor(R.color.digital_text), BOLD_TYPEFACE);
+        mHighTemperatureTextPaint.setTextSize(resources.getDimension(R.dimen.weather_text_size));
+
+        mLowTemperatureTextPaint = createTextPaint(resources.getColor(R.color.light_text), NORMAL_TYPEFACE);
+        mLowTemperatureTextPaint.setTextSize(resources.getDimension(R.dimen.weather_text_size));
+
+        mBitmapPaint = new Paint();
+
+        mWeatherIcons = new WeatherIcons(resources,
+                resources.getDimensionPixelSize(R.dimen.weather_icon_size));
+
+        Paint.FontMetrics timeMetrics = mTimeTextPaint.getFontMetrics();
+        mTimeTop = timeMetrics.top;
+        mTimeBottom = timeMetrics.bottom;
+    }
+
+    private static Paint createTextPaint(int textColor, Typeface typeface) {
+        Paint paint = new Paint();
+        paint.setColor(textColor);
+        paint.setTypeface(typeface);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    /**
+     * Copies as much of the text as fits into the buffer.
+     *
+     * @return The number of characters that were copied
+     */
+    private static int copyText(String text, char[] buffer) {
+        int length = Math.min(text.length(), buffer.length);
+        text.getChars(0, length, buffer, 0);
+        return length;
+    }
+
+    /**
+     * Sets the size of the surface the watch face is drawn on. The next frame creates a layer
+     * of the new size.
+     */
+    void setSurfaceSize(int width, int height) {
+        release();
+        mSurfaceBounds.set(0, 0, width, height);
+        mTimeBoundsValid = false;
+    }
+
+    Rect getSurfaceBounds() {
+        return mSurfaceBounds;
+    }
+
+    /**
+     * @return Where the time was drawn by the last full frame, see {@link #canDrawTimeOnly}
+     */
+    Rect getTimeBounds() {
+        return mTimeBounds;
+    }
+
+    void setLowBitAmbient(boolean lowBitAmbient) {
+        mLowBitAmbient = lowBitAmbient;
+        mLayerDirty = true;
+    }
+
+    /**
+     * @return Whether that changed anything, in which case the whole watch face must be drawn
+     */
+    boolean setAmbient(boolean ambient) {
+        if (mAmbient == ambient) {
+            return false;
+        }
+        mAmbient = ambient;
+        if (mLowBitAmbient) {
+            mTimeTextPaint.setAntiAlias(!ambient);
+            mDateTextPaint.setAntiAlias(!ambient);
+            mHighTemperatureTextPaint.setAntiAlias(!ambient);
+            mLowTemperatureTextPaint.setAntiAlias(!ambient);
+        }
+        mLayerDirty = true;
+        return true;
+    }
+
+    /**
+     * Makes the next frame pick up the current time zone, locale and 12/24 hour setting.
+     */
+    void resetClock() {
+        mCalendar.setTimeZone(TimeZone.getDefault());
+        mClockTextMinute = -1;
+        mTimeFormat = null;
+        mDateText = null;
+        mTimeBoundsValid = false;
+    }
+
+    /**
+     * @return Whether weather was published since the layer was drawn
+     */
+    boolean isWeatherOutdated() {
+        return mLayerWeatherVersion != WeatherSnapshot.getCurrent().getVersion();
+    }
+
+    /**
+     * Whether the next frame only needs to redraw the time: nothing but the separator can
+     * have changed since the last full frame.
+     *
+     * @param now The time that is going to be drawn, in milliseconds since the epoch
+     */
+    boolean canDrawTimeOnly(long now) {
+        return mTimeBoundsValid
+                && mLayerBitmap != null
+                && !mLayerDirty
+                && !isWeatherOutdated()
+                && now / MINUTE_IN_MILLIS == mClockTextMinute;
+    }
+
+    /**
+     * Draws a frame of the watch face. A partial frame is drawn on a canvas that the engine
+     * clipped to {@link #getTimeBounds()}, but is drawn just like a full one: whatever the clip
+     * grew to is covered.
+     *
+     * @param canvas  The canvas to draw on
+     * @param bounds  The bounds of the watch face
+     * @param now     The time to draw, in milliseconds since the epoch
+     * @param partial Whether only the time needs to be drawn, see {@link #canDrawTimeOnly}
+     * @return Whether a full frame must be drawn next, because the minute changed during a
+     * partial one and the new time may not fit in the old bounds
+     */
+    boolean draw(Canvas canvas, Rect bounds, long now, boolean partial) {
+        mCalendar.setTimeInMillis(now);
+        boolean clockTextChanged = updateClockText(now);
+
+        if (mLayerBitmap == null) {
+            mLayerBitmap = Bitmap.createBitmap(
+                    bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+            mLayerCanvas = new Canvas(mLayerBitmap);
+            mLayerDirty = true;
+        }
+        WeatherSnapshot weather = WeatherSnapshot.getCurrent();
+        if (mLayerDirty || mLayerWeatherVersion != weather.getVersion()) {
+            drawStaticLayer(mLayerCanvas, bounds, weather);
+        }
+
+        // Draw the background, date and weather.
+        canvas.drawBitmap(mLayerBitmap, 0, 0, mBitmapPaint);
+
+        float centerX = bounds.width() / 2;
+
+        // Blink the separator once a second, but not in ambient mode, where we only draw
+        // once a minute.
+        if (mTimeSeparatorIndex >= 0) {
+            boolean showSeparator = mAmbient || mCalendar.get(Calendar.SECOND) % 2 == 0;
+            mTimeChars[mTimeSeparatorIndex] = showSeparator ? TIME_SEPARATOR : ' ';
+        }
+
+        //drawing the time, centered as it is measured with the separator
+        float xTime = centerX - mTimeWidth / 2;
+        float yTime = bounds.exactCenterY() - lineHeight;
+        canvas.drawText(mTimeChars, 0, mTimeLength, xTime, yTime, mTimeTextPaint);
+
+        if (!partial) {
+            mTimeBounds.set((int) Math.floor(xTime), (int) Math.floor(yTime + mTimeTop),
+                    (int) Math.ceil(xTime + mTimeWidth), (int) Math.ceil(yTime + mTimeBottom));
+            mTimeBoundsValid = true;
+            return false;
+        }
+        return clockTextChanged;
+    }
+
+    /**
+     * Draws everything but the time: the background, the date, the divider and the weather.
+     *
+     * @param canvas  The canvas of the layer bitmap
+     * @param bounds  The bounds of the watch face
+     * @param weather The weather to draw
+     */
+    private void drawStaticLayer(Canvas canvas, Rect bounds, WeatherSnapshot weather) {
+        mLayerWeatherVersion = weather.getVersion();
+        mLayerDirty = false;
+
+        // Draw the background.
+        canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+
+        float centerX = bounds.width() / 2;
+
+        // Drawing Day , Date , WeatherIcon , temperature
+        canvas.drawText(mDateChars, 0, mDateLength, centerX - mDateWidth / 2,
+                bounds.exactCenterY(), mDateTextPaint);
+
+        float yDivider = bounds.exactCenterY() + lineHeight / 2;
+
+        canvas.drawLine(centerX - dividerWidth / 2, yDivider, centerX + dividerWidth / 2, yDivider, mDividerPaint);
+
+        if (weather.hasWeatherData()) {
+
+            measureTemperatures(weather);
+
+            float yWeather = yDivider + dividerMargin + lineHeight;
+
+            float xHighTemp = centerX - mHighTemperatureWidth / 2;
+            canvas.drawText(mMeasuredHighTemperature, xHighTemp, yWeather, mHighTemperatureTextPaint);
+
+            float xLowTemp = xHighTemp + mHighTemperatureWidth;
+            canvas.drawText(mMeasuredLowTemperature, xLowTemp, yWeather, mLowTemperatureTextPaint);
+
+            Bitmap weatherDrawable = mWeatherIcons.getIcon(weather.getWeatherId());
+            float xWeather = xHighTemp - weatherDrawable.getWidth() - marginWeather;
+            canvas.drawBitmap(weatherDrawable, xWeather, yDivider + dividerMargin, mBitmapPaint);
+        }
+    }
+
+    /**
+     * Frees the layer bitmap. The next frame creates a new one.
+     */
+    void release() {
+        if (mLayerBitmap != null) {
+            mLayerBitmap.recycle();
+            mLayerBitmap = null;
+            mLayerCanvas = null;
+        }
+    }
+
+    /**
+     * Prepares the time and date text for the minute that the given time falls in, unless
+     * that has already been done. This is the only place draw allocates, once a minute.
+     * <p>
+     * Time zones are offset from UTC by whole minutes, so every local minute starts at a
+     * multiple of a minute since the epoch. When the date changes, the static layer is
+     * marked to be drawn again.
+     *
+     * @param now The time that is being drawn, in milliseconds since the epoch
+     * @return Whether the text was prepared again
+     */
+    private boolean updateClockText(long now) {
+        long minute = now / MINUTE_IN_MILLIS;
+        if (minute == mClockTextMinute) {
+            return false;
+        }
+        mClockTextMinute = minute;
+
+        boolean is24Hour = DateFormat.is24HourFormat(mContext);
+        Locale locale = Locale.getDefault();
+        if (mTimeFormat == null || is24Hour != mIs24Hour || !locale.equals(mFormatLocale)) {
+            mIs24Hour = is24Hour;
+            mFormatLocale = locale;
+            mTimeFormat = new SimpleDateFormat(is24Hour ? "HH:mm" : "hh:mm a", locale);
+            mDateFormat = new SimpleDateFormat("EE MM dd yyyy", locale);
+            mTimeFormat.setTimeZone(mCalendar.getTimeZone());
+            mDateFormat.setTimeZone(mCalendar.getTimeZone());
+        }
+
+        String time = mTimeFormat.format(mCalendar.getTime());
+        mTimeLength = copyText(time, mTimeChars);
+        mTimeSeparatorIndex = time.indexOf(TIME_SEPARATOR);
+        if (mTimeSeparatorIndex >= mTimeLength) {
+            mTimeSeparatorIndex = -1;
+        }
+        mTimeWidth = mTimeTextPaint.measureText(mTimeChars, 0, mTimeLength);
+
+        String date = mDateFormat.format(mCalendar.getTime());
+        if (!date.equals(mDateText)) {
+            mDateText = date;
+            mDateLength = copyText(date, mDateChars);
+            mDateWidth = mDateTextPaint.measureText(mDateChars, 0, mDateLength);
+            mLayerDirty = true;
+
+            /* A new day, so move on to its weather, which comes back to us as a snapshot */
+            ForecastStore.getInstance(mContext).publishToday();
+        }
+        return true;
+    }
+
+    /**
+     * Measures the temperatures of the given weather, unless they are the ones that were
+     * measured last.
+     */
+    private void measureTemperatures(WeatherSnapshot weather) {
+        String highTemperature = weather.getHighTemperature();
+        String lowTemperature = weather.getLowTemperature();
+        if (highTemperature != mMeasuredHighTemperature) {
+            mHighTemperatureWidth = mHighTemperatureTextPaint.measureText(highTemperature);
+        }
+        mMeasuredHighTemperature = highTemperature;
+        mMeasuredLowTemperature = lowTemperature;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * The weather art the watch face shows, which ships with the wear module rather than being sent
+ * by the phone. The phone only sends the OpenWeatherMap condition ID, see
+ * http://openweathermap.org/weather-conditions for a list of all IDs.
+ * <p>
+ * The art is drawn into a bitmap of exactly the size the watch face shows it at, the first time
+ * each icon is needed, so that drawing a frame only has to copy pixels.
+ */
+final class WeatherIcons {
+
+    private static final String TAG = WeatherIcons.class.getSimpleName();
+
+    private final Resources mResources;
+    private final int mIconSize;
+
+    /* The icons drawn so far, by drawable resource ID */
+    private final SparseArray<Bitmap> mIcons = new SparseArray<>();
+
+    /**
+     * @param resources Used to load the art
+     * @param iconSize  The width and height to draw the icons at, in pixels
+     */
+    WeatherIcons(Resources resources, int iconSize) {
+        mResources = resources;
+        mIconSize = iconSize;
+    }
+
+    /**
+     * @param weatherId The OpenWeatherMap condition ID
+     * @return The icon for the condition, drawn at the icon size
+     */
+    Bitmap getIcon(int weatherId) {
+        int resourceId = getArtResourceIdForWeatherCondition(weatherId);
+        Bitmap icon = mIcons.get(resourceId);
+        if (icon == null) {
+            icon = Bitmap.createBitmap(mIconSize, mIconSize, Bitmap.Config.ARGB_8888);
+            Drawable art = mResources.getDrawable(resourceId, null);
+            art.setBounds(0, 0, mIconSize, mIconSize);
+            art.draw(new Canvas(icon));
+            mIcons.put(resourceId, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Returns the art for an OpenWeatherMap condition ID. This must match
+     * SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition in the app, so that the
+     * watch shows the same art as the phone.
+     *
+     * @param weatherId The OpenWeatherMap condition ID
+     * @return The drawable resource ID of the art for the condition
+     */
+    static int getArtResourceIdForWeatherCondition(int weatherId) {
+
+        /*
+         * Based on weather code data for Open Weather Map.
+         */
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        } else if (weatherId >= 900 && weatherId <= 906) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 958 && weatherId <= 962) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 951 && weatherId <= 957) {
+            return R.drawable.art_clear;
+        }
+
+        Log.e(TAG, "Unknown Weather: " + weatherId);
+        return R.drawable.art_storm;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The weather the watch face shows, as it was last received from the phone. A snapshot never
+ * changes once it has been published: SunshineWearableListenerService publishes a new one for
+ * every update, so the watch face always draws temperatures and a condition that belong
+ * together, whichever thread they came from.
+ * <p>
+ * Every snapshot carries a version, one higher than the snapshot it replaced, so that a watch
+ * face can tell whether the weather changed since it last drew it by comparing a single number.
+ */
+final class WeatherSnapshot {
+
+    /**
+     * Called whenever a new snapshot is published. This is called on the thread that published
+     * it, so implementations should hand the work over to their own thread.
+     */
+    interface OnWeatherChangedListener {
+        void onWeatherChanged(WeatherSnapshot snapshot);
+    }
+
+    /* What the watch face shows until the first weather arrives, it has no weather data */
+    private static final WeatherSnapshot EMPTY = new WeatherSnapshot(0, null, null, 0);
+
+    private static final AtomicReference<WeatherSnapshot> sCurrent =
+            new AtomicReference<>(EMPTY);
+
+    private static final CopyOnWriteArrayList<OnWeatherChangedListener> sListeners =
+            new CopyOnWriteArrayList<>();
+
+    private final long mVersion;
+    private final String mHighTemperature;
+    private final String mLowTemperature;
+    private final int mWeatherId;
+
+    private WeatherSnapshot(long version, String highTemperature, String lowTemperature,
+                            int weatherId) {
+        mVersion = version;
+        mHighTemperature = highTemperature;
+        mLowTemperature = lowTemperature;
+        mWeatherId = weatherId;
+    }
+
+    /**
+     * @return The snapshot that was published last, or one without any weather data if none
+     * has been published yet
+     */
+    static WeatherSnapshot getCurrent() {
+        return sCurrent.get();
+    }
+
+    /**
+     * Replaces the current snapshot with one holding the given weather, and tells every listener
+     * about it.
+     *
+     * @param highTemperature The formatted high temperature
+     * @param lowTemperature  The formatted low temperature
+     * @param weatherId       The OpenWeatherMap condition ID of the weather
+     * @return The snapshot that was published
+     */
+    static WeatherSnapshot publish(String highTemperature, String lowTemperature,
+                                   int weatherId) {
+        WeatherSnapshot current;
+        WeatherSnapshot next;
+        do {
+            current = sCurrent.get();
+            next = new WeatherSnapshot(
+                    current.mVersion + 1, highTemperature, lowTemperature, weatherId);
+        } while (!sCurrent.compareAndSet(current, next));
+
+        for (OnWeatherChangedListener listener : sListeners) {
+            listener.onWeatherChanged(next);
+        }
+        return next;
+    }
+
+    static void addListener(OnWeatherChangedListener listener) {
+        sListeners.addIfAbsent(listener);
+    }
+
+    static void removeListener(OnWeatherChangedListener listener) {
+        sListeners.remove(listener);
+    }
+
+    long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return Whether this snapshot holds weather at all, false until the first weather arrives
+     */
+    boolean hasWeatherData() {
+        return this != EMPTY;
+    }
+
+    String getHighTemperature() {
+        return mHighTemperature;
+    }
+
+    String getLowTemperature() {
+        return mLowTemperature;
+    }
+
+    /**
+     * @return The OpenWeatherMap condition ID, see {@link WeatherIcons}
+     */
+    int getWeatherId() {
+        return mWeatherId;
+    }
+}
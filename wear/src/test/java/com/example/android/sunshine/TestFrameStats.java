@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests FrameStats' percentiles, which are rounded up to the end of their 0.25ms bucket, and its
+ * counts of partial and over budget frames.
+ */
+public class TestFrameStats {
+
+    @Test
+    public void testEmptyStats() {
+        FrameStats stats = new FrameStats();
+
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getPercentileNanos(50));
+        assertEquals(0, stats.getPercentileNanos(99));
+        assertEquals(0, stats.getOverBudgetCount());
+    }
+
+    /**
+     * 100 frames taking 0.1ms, 0.2ms, ... up to 10ms.
+     */
+    @Test
+    public void testPercentiles() {
+        FrameStats stats = new FrameStats();
+        for (int frame = 1; frame <= 100; frame++) {
+            stats.recordFrame(micros(frame * 100), false);
+        }
+
+        assertEquals(100, stats.getFrameCount());
+        /* The 50th frame took 5ms, which is in the bucket from 5ms to 5.25ms */
+        assertEquals(micros(5250), stats.getPercentileNanos(50));
+        /* The 95th took 9.5ms, in the bucket up to 9.75ms */
+        assertEquals(micros(9750), stats.getPercentileNanos(95));
+        /* The 99th took 9.9ms, in the bucket up to 10ms, which is also the slowest frame */
+        assertEquals(micros(10000), stats.getPercentileNanos(99));
+        assertEquals(0, stats.getOverBudgetCount());
+    }
+
+    @Test
+    public void testPercentilesNeverExceedSlowestFrame() {
+        FrameStats stats = new FrameStats();
+        stats.recordFrame(micros(1010), false);
+
+        assertEquals(micros(1010), stats.getPercentileNanos(50));
+    }
+
+    /**
+     * Frames beyond the last bucket are reported as the slowest frame seen.
+     */
+    @Test
+    public void testSlowFramesOverflow() {
+        FrameStats stats = new FrameStats();
+        for (int frame = 0; frame < 99; frame++) {
+            stats.recordFrame(micros(1000), false);
+        }
+        stats.recordFrame(micros(80000), false);
+
+        assertEquals(micros(1250), stats.getPercentileNanos(99));
+        assertEquals(micros(80000), stats.getPercentileNanos(100));
+        assertEquals(1, stats.getOverBudgetCount());
+    }
+
+    @Test
+    public void testOverBudgetCount() {
+        FrameStats stats = new FrameStats(TimeUnit.MILLISECONDS.toNanos(8));
+        for (int frame = 1; frame <= 100; frame++) {
+            stats.recordFrame(micros(frame * 100), false);
+        }
+
+        /* 8.1ms to 10ms, a frame that takes exactly the budget is still within it */
+        assertEquals(20, stats.getOverBudgetCount());
+    }
+
+    @Test
+    public void testPartialFramesAndReset() {
+        FrameStats stats = new FrameStats();
+        stats.recordFrame(micros(2000), false);
+        stats.recordFrame(micros(500), true);
+        stats.recordFrame(micros(600), true);
+
+        assertEquals(3, stats.getFrameCount());
+        assertEquals(2, stats.getPartialFrameCount());
+        assertTrue(stats.getSummary(), stats.getSummary().startsWith("frames: 3 (2 partial)"));
+
+        stats.reset();
+
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getPartialFrameCount());
+        assertEquals(0, stats.getPercentileNanos(50));
+    }
+
+    private static long micros(long micros) {
+        return TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests that PackedForecast reads what the phone's WearForecast.pack writes, and that anything
+ * else is rejected rather than read as a forecast.
+ * <p>
+ * The app isn't on this module's classpath, so {@link #pack} writes the format the same way
+ * WearForecast does. The two must be changed together.
+ */
+public class TestPackedForecast {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_DAYS = 366;
+
+    /* Saturday, October 1st 2016, normalized to midnight UTC */
+    private static final long FIRST_DATE = 1475280000000L;
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final long[] DATES = {
+            FIRST_DATE, FIRST_DATE + DAY_IN_MILLIS, FIRST_DATE + 2 * DAY_IN_MILLIS};
+    private static final int[] WEATHER_IDS = {800, 500, 211};
+    private static final int[] MAX_TEMPS = {25, 21, -3};
+    private static final int[] MIN_TEMPS = {16, 14, -12};
+
+    @Test
+    public void testUnpackReadsPackedForecast() {
+        PackedForecast forecast = PackedForecast.unpack(
+                pack(FORMAT_VERSION, DATES.length, DATES, WEATHER_IDS, MAX_TEMPS, MIN_TEMPS));
+
+        assertNotNull(forecast);
+        assertEquals(DATES.length, forecast.size());
+        for (int day = 0; day < DATES.length; day++) {
+            assertEquals(DATES[day], forecast.getDate(day));
+            assertEquals(WEATHER_IDS[day], forecast.getWeatherId(day));
+            assertEquals(MAX_TEMPS[day], forecast.getMaxTemp(day));
+            assertEquals(MIN_TEMPS[day], forecast.getMinTemp(day));
+        }
+    }
+
+    @Test
+    public void testUnpackEmptyForecast() {
+        PackedForecast forecast = PackedForecast.unpack(
+                pack(FORMAT_VERSION, 0, new long[0], new int[0], new int[0], new int[0]));
+
+        assertNotNull(forecast);
+        assertEquals(0, forecast.size());
+        assertEquals(-1, forecast.indexOfDate(FIRST_DATE));
+    }
+
+    @Test
+    public void testIndexOfDate() {
+        PackedForecast forecast = PackedForecast.unpack(
+                pack(FORMAT_VERSION, DATES.length, DATES, WEATHER_IDS, MAX_TEMPS, MIN_TEMPS));
+
+        assertNotNull(forecast);
+        for (int day = 0; day < DATES.length; day++) {
+            assertEquals(day, forecast.indexOfDate(DATES[day]));
+        }
+        /* The day before the forecast starts, the day after it ends, and a time within a day */
+        assertEquals(-1, forecast.indexOfDate(FIRST_DATE - DAY_IN_MILLIS));
+        assertEquals(-1, forecast.indexOfDate(FIRST_DATE + DATES.length * DAY_IN_MILLIS));
+        assertEquals(-1, forecast.indexOfDate(FIRST_DATE + DAY_IN_MILLIS / 2));
+    }
+
+    @Test
+    public void testUnpackRejectsOtherVersions() {
+        assertNull(PackedForecast.unpack(
+                pack(FORMAT_VERSION + 1, DATES.length, DATES, WEATHER_IDS, MAX_TEMPS, MIN_TEMPS)));
+        assertNull(PackedForecast.unpack(
+                pack(0, DATES.length, DATES, WEATHER_IDS, MAX_TEMPS, MIN_TEMPS)));
+    }
+
+    /**
+     * Cutting the packed forecast short anywhere, even within the last day's minimum
+     * temperature, must not leave a forecast with days that were never sent.
+     */
+    @Test
+    public void testUnpackRejectsTruncatedForecast() {
+        byte[] packed = pack(FORMAT_VERSION, DATES.length, DATES, WEATHER_IDS, MAX_TEMPS,
+                MIN_TEMPS);
+
+        for (int length = 0; length < packed.length; length++) {
+            assertNull("Truncated to " + length + " bytes",
+                    PackedForecast.unpack(Arrays.copyOf(packed, length)));
+        }
+        assertNull(PackedForecast.unpack(null));
+    }
+
+    /**
+     * A year of days is the most a forecast may hold, even if all of them were sent.
+     */
+    @Test
+    public void testUnpackRejectsTooManyDays() {
+        assertNotNull(PackedForecast.unpack(packDays(MAX_DAYS)));
+        assertNull(PackedForecast.unpack(packDays(MAX_DAYS + 1)));
+    }
+
+    /**
+     * A day count that is negative or far too large is rejected before anything is allocated
+     * for it.
+     */
+    @Test
+    public void testUnpackRejectsBadDayCount() {
+        assertNull(PackedForecast.unpack(
+                pack(FORMAT_VERSION, Integer.MAX_VALUE, DATES, WEATHER_IDS, MAX_TEMPS,
+                        MIN_TEMPS)));
+        assertNull(PackedForecast.unpack(
+                pack(FORMAT_VERSION, -1, DATES, WEATHER_IDS, MAX_TEMPS, MIN_TEMPS)));
+    }
+
+    /**
+     * Packs a forecast of the given number of days, all of them clear and mild.
+     */
+    private static byte[] packDays(int days) {
+        long[] dates = new long[days];
+        int[] weatherIds = new int[days];
+        int[] maxTemps = new int[days];
+        int[] minTemps = new int[days];
+        for (int day = 0; day < days; day++) {
+            dates[day] = FIRST_DATE + day * DAY_IN_MILLIS;
+            weatherIds[day] = 800;
+            maxTemps[day] = 20;
+            minTemps[day] = 10;
+        }
+        return pack(FORMAT_VERSION, days, dates, weatherIds, maxTemps, minTemps);
+    }
+
+    /**
+     * Packs a forecast just like WearForecast.pack does, but with whatever version and number of
+     * days we want to claim in its header.
+     */
+    private static byte[] pack(int version, int days, long[] dates, int[] weatherIds,
+                               int[] maxTemps, int[] minTemps) {
+        int intCount = 2 + weatherIds.length + maxTemps.length + minTemps.length;
+        ByteBuffer buffer = ByteBuffer.allocate(intCount * 4 + dates.length * 8);
+        buffer.putInt(version);
+        buffer.putInt(days);
+        for (long date : dates) {
+            buffer.putLong(date);
+        }
+        for (int weatherId : weatherIds) {
+            buffer.putInt(weatherId);
+        }
+        for (int maxTemp : maxTemps) {
+            buffer.putInt(maxTemp);
+        }
+        for (int minTemp : minTemps) {
+            buffer.putInt(minTemp);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Drives WatchFaceRenderer the way the engine's timer does, once a second, choosing between a
+ * partial frame of just the time and a full frame exactly like handleUpdateTimeMessage does.
+ * <p>
+ * {@link #benchmarkPartialAndFullRedraws()} checks how many frames of each kind are drawn, and
+ * logs their frame times to the test output. Robolectric doesn't rasterize anything, so those
+ * times only cover the Java side of drawing a frame; they are for comparing changes to the
+ * renderer, not the watch.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestWatchFaceRedraws {
+
+    private static final String TAG = TestWatchFaceRedraws.class.getSimpleName();
+
+    private static final long MINUTE_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long SECOND_IN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /* Saturday, October 1st 2016, noon UTC, so that no time zone's date changes for a while */
+    private static final long START_MILLIS = 1475323200000L;
+
+    private static final int SIMULATED_MINUTES = 10;
+
+    private static final int SURFACE_SIZE = 320;
+
+    private WatchFaceRenderer mRenderer;
+    private Bitmap mScreen;
+    private Canvas mCanvas;
+    private final Rect mBounds = new Rect(0, 0, SURFACE_SIZE, SURFACE_SIZE);
+
+    private final FrameStats mFullFrames = new FrameStats();
+    private final FrameStats mPartialFrames = new FrameStats();
+
+    @Before
+    public void setUp() {
+        /* Robolectric swallows whatever is logged unless it is told where to write it */
+        ShadowLog.stream = System.out;
+
+        mRenderer = new WatchFaceRenderer(RuntimeEnvironment.application);
+        mRenderer.setSurfaceSize(SURFACE_SIZE, SURFACE_SIZE);
+        mScreen = Bitmap.createBitmap(SURFACE_SIZE, SURFACE_SIZE, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mScreen);
+
+        WeatherSnapshot.publish("25°", "16°", 800);
+    }
+
+    @After
+    public void tearDown() {
+        mRenderer.release();
+        mScreen.recycle();
+    }
+
+    /**
+     * Within a minute only the time is redrawn. Every new minute, and new weather, take a full
+     * frame.
+     */
+    @Test
+    public void benchmarkPartialAndFullRedraws() {
+        int seconds = SIMULATED_MINUTES * 60;
+        int weatherChangeSecond = seconds / 2 + 20;
+
+        for (int second = 0; second < seconds; second++) {
+            if (second == weatherChangeSecond) {
+                WeatherSnapshot.publish("21°", "14°", 500);
+            }
+            assertFalse("A partial frame at second " + second + " asked for a full one",
+                    tick(START_MILLIS + second * SECOND_IN_MILLIS));
+        }
+
+        Log.i(TAG, "Full frames: " + mFullFrames.getSummary());
+        Log.i(TAG, "Partial frames: " + mPartialFrames.getSummary());
+
+        /* The first frame of every minute, and the one after the weather changed */
+        assertEquals(SIMULATED_MINUTES + 1, mFullFrames.getFrameCount());
+        assertEquals(seconds - SIMULATED_MINUTES - 1, mPartialFrames.getFrameCount());
+    }
+
+    /**
+     * The timer may fire a little before a minute changes and draw a little after. The time of
+     * the new minute may not fit in the old bounds, so the partial frame asks for a full one.
+     */
+    @Test
+    public void testNewMinuteDuringPartialFrameRequestsFullFrame() {
+        mRenderer.draw(mCanvas, mBounds, START_MILLIS, false);
+
+        assertTrue(mRenderer.canDrawTimeOnly(START_MILLIS + MINUTE_IN_MILLIS - 1));
+        assertTrue(mRenderer.draw(mCanvas, mBounds, START_MILLIS + MINUTE_IN_MILLIS, true));
+    }
+
+    @Test
+    public void testAmbientModeChangeRequestsFullFrame() {
+        mRenderer.draw(mCanvas, mBounds, START_MILLIS, false);
+
+        assertTrue(mRenderer.setAmbient(true));
+        assertFalse(mRenderer.canDrawTimeOnly(START_MILLIS + SECOND_IN_MILLIS));
+        assertFalse("Ambient mode didn't change", mRenderer.setAmbient(true));
+    }
+
+    /**
+     * Draws one frame the way handleUpdateTimeMessage does, and records its draw time.
+     *
+     * @return What the renderer returned, whether a full frame must follow
+     */
+    private boolean tick(long now) {
+        boolean partial = mRenderer.canDrawTimeOnly(now);
+        long drawStart = System.nanoTime();
+        boolean fullFrameNeeded;
+        if (partial) {
+            mCanvas.save();
+            mCanvas.clipRect(mRenderer.getTimeBounds());
+            fullFrameNeeded = mRenderer.draw(mCanvas, mBounds, now, true);
+            mCanvas.restore();
+        } else {
+            fullFrameNeeded = mRenderer.draw(mCanvas, mBounds, now, false);
+        }
+        long drawNanos = System.nanoTime() - drawStart;
+
+        (partial ? mPartialFrames : mFullFrames).recordFrame(drawNanos, partial);
+        return fullFrameNeeded;
+    }
+}